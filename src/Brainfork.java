@@ -0,0 +1,270 @@
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs programs in the Brainfork dialect, where {@code Y} splits the running thread in two, see
+ * {@link Instruction.Fork}. A program ends when all of its threads have.
+ * <p>
+ * Each thread steps through the program with its own stack of frames, one per enclosing block, so a child resumes
+ * inside the same loops as its parent. Blocks without a fork in them run as usual. Every thread works on a
+ * {@link Tape.Paged#fork} of the tape it split from, and all of them together may allocate at most
+ * {@link #maxTapeBytes}. Threads run on a pool of {@link #threads}, and at most {@link #maxThreads} may be alive,
+ * running or waiting, at once. Output goes through a lock-free queue the calling thread drains, so the output
+ * of one instruction is never split by that of another thread, and the last thread to end closes the queue. The
+ * calling thread parks while the queue is empty and every thread that queues output unparks it.
+ */
+final class Brainfork {
+
+    static int threads = Runtime.getRuntime().availableProcessors();
+    static int maxThreads = 1 << 12;
+    static long maxTapeBytes = 1L << 30;
+
+    /**
+     * Blocks with a fork somewhere in them, which the threads step through instead of running.
+     */
+    @NotNull
+    private final Set<Instruction> forking = Collections.newSetFromMap(new IdentityHashMap<>());
+    @NotNull
+    private final ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+        Thread thread = new Thread(r, "brainfork");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /**
+     * Output of all threads, closed by an empty string, which no thread queues otherwise.
+     */
+    private final ConcurrentLinkedQueue<String> sink = new ConcurrentLinkedQueue<>();
+    /**
+     * The calling thread, which drains the sink.
+     */
+    @NotNull
+    private final Thread reader = Thread.currentThread();
+    private final AtomicInteger live = new AtomicInteger();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    private Brainfork(@NotNull InstructionBlock program) {
+        collect(program);
+    }
+
+    private boolean collect(@NotNull InstructionBlock block) {
+        boolean forks = false;
+        for (Instruction inst : block) {
+            if (inst instanceof Instruction.Fork) {
+                forks = true;
+            } else if (inst instanceof Instruction.Control && collect(((Instruction.Control) inst).block)) {
+                forking.add(inst);
+                forks = true;
+            }
+        }
+        return forks;
+    }
+
+    /**
+     * Whether a program has a fork anywhere in it, so that it only runs in {@link #execute}.
+     */
+    static boolean forks(@NotNull InstructionBlock program) {
+        for (Instruction inst : program) {
+            if (inst instanceof Instruction.Fork
+                    || inst instanceof Instruction.Control && forks(((Instruction.Control) inst).block)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses a Brainfork program, ignoring any character that is not a command.
+     */
+    @NotNull
+    static InstructionBlock parse(@NotNull String program) {
+        return new InstructionBlock(InstructionBlock.from(program.replaceAll("[^.,\\[\\]<>+\\-Y]", ""), true).inst);
+    }
+
+    /**
+     * Runs a program until all of its threads end. Afterwards the state holds the tape and pointer of the thread the
+     * program started as.
+     *
+     * @param state state with a {@link Tape.Paged}
+     * @return the output, which is empty when it was written to {@link State#out}
+     */
+    @NotNull
+    static String execute(@NotNull InstructionBlock program, @NotNull State state) {
+        if (!(state.tape instanceof Tape.Paged)) {
+            throw new IllegalArgumentException("Brainfork runs on a paged tape");
+        }
+        Tape.Paged tape = (Tape.Paged) state.tape;
+        Brainfork run = new Brainfork(program);
+        tape.budget(new AtomicLong(maxTapeBytes >> Tape.PAGE_BITS));
+        Events.Execute event = new Events.Execute();
+        event.engine = "brainfork";
+        event.begin();
+        try {
+            return run.run(program, state);
+        } finally {
+            event.commit();
+            tape.budget(null);
+            run.pool.shutdownNow();
+        }
+    }
+
+    @NotNull
+    private String run(@NotNull InstructionBlock program, @NotNull State state) {
+        State main = new State(state.tape);
+        main.pointer = state.pointer;
+        main.in = state.in;
+        Deque<Frame> frames = new ArrayDeque<>();
+        frames.push(new Frame(null, program.first));
+        start(new Strand(main, frames));
+        StringBuilder out = new StringBuilder();
+        while (true) {
+            String output = sink.poll();
+            if (output == null) {
+                if (reader.isInterrupted()) {
+                    failure.compareAndSet(null, new CancellationException("interrupted while threads ran"));
+                    break;
+                }
+                LockSupport.park(this);
+            } else if (output.isEmpty()) {
+                break;
+            } else {
+                out.append(state.emit(output));
+            }
+        }
+        state.pointer = main.pointer;
+        Throwable e = failure.get();
+        if (e instanceof Error) {
+            throw (Error) e;
+        } else if (e != null) {
+            throw (RuntimeException) e;
+        }
+        return out.toString();
+    }
+
+    private void offer(@NotNull String output) {
+        sink.offer(output);
+        LockSupport.unpark(reader);
+    }
+
+    private void start(@NotNull Strand strand) {
+        if (live.incrementAndGet() > maxThreads) {
+            live.decrementAndGet();
+            throw new IllegalStateException("more than " + maxThreads + " threads");
+        }
+        pool.execute(strand);
+    }
+
+    /**
+     * Block a thread is in, and the position it goes on from.
+     */
+    private static final class Frame {
+        @Nullable
+        final Instruction.Control control;
+        @Nullable
+        InstructionBlock.Position next;
+        int pass = 0;
+
+        Frame(@Nullable Instruction.Control control, @Nullable InstructionBlock.Position next) {
+            this.control = control;
+            this.next = next;
+        }
+
+        @NotNull
+        Frame copy() {
+            Frame copy = new Frame(control, next);
+            copy.pass = pass;
+            return copy;
+        }
+    }
+
+    /**
+     * One thread of the program.
+     */
+    private final class Strand implements Runnable {
+        @NotNull
+        private final State state;
+        @NotNull
+        private final Deque<Frame> frames;
+
+        Strand(@NotNull State state, @NotNull Deque<Frame> frames) {
+            this.state = state;
+            this.frames = frames;
+        }
+
+        @Override
+        public void run() {
+            try {
+                step();
+            } catch (RuntimeException | Error e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                if (live.decrementAndGet() == 0) {
+                    offer("");
+                }
+            }
+        }
+
+        private void step() {
+            while (!frames.isEmpty() && failure.get() == null) {
+                Frame frame = frames.peek();
+                if (frame.next == null) {
+                    Instruction.Control control = frame.control;
+                    if (control != null && control.runs(state, ++frame.pass)) {
+                        frame.next = control.block.first;
+                    } else {
+                        frames.pop();
+                        state.pointer -= control == null ? 0 : control.origin();
+                    }
+                    continue;
+                }
+                Instruction inst = frame.next.instruction;
+                frame.next = frame.next.next;
+                if (inst instanceof Instruction.Fork) {
+                    fork(((Instruction.Fork) inst).offset);
+                } else if (forking.contains(inst)) {
+                    Instruction.Control control = (Instruction.Control) inst;
+                    state.pointer += control.origin();
+                    if (control.runs(state, 0)) {
+                        frames.push(new Frame(control, control.block.first));
+                    } else {
+                        state.pointer -= control.origin();
+                    }
+                } else {
+                    String output = inst.execute(state);
+                    if (!output.isEmpty()) {
+                        offer(output);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Starts the child on a copy of the tape taken before the parent clears its cell.
+         */
+        private void fork(int offset) {
+            State child = new State(((Tape.Paged) state.tape).fork());
+            child.pointer = state.pointer + 1;
+            child.in = state.in;
+            child.tape.set(child.pointer + offset, (byte) 1);
+            state.tape.set(state.pointer + offset, (byte) 0);
+            Deque<Frame> copy = new ArrayDeque<>();
+            for (Frame frame : frames) {
+                copy.addLast(frame.copy());
+            }
+            start(new Strand(child, copy));
+        }
+    }
+}
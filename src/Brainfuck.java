@@ -1,14 +1,20 @@
+import org.jetbrains.annotations.NotNull;
+
 import java.io.IOException;
-import java.util.Arrays;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
+import java.util.function.Supplier;
 
 /**
  * Created by stjjensen1 on 5/16/2016.
  */
 class Brainfuck {
 
-    static int i = 0;
-    static int j = 0;
+    /**
+     * Passes run so far by the current {@link #optimize}.
+     */
+    private static int passes = 0;
 
     public static void main(String[] args) throws IOException {
         String program;
@@ -184,25 +190,96 @@ class Brainfuck {
 
         InstructionBlock programBlock = new InstructionBlock(list);
 
-        programBlock.print = true;
-        InstructionBlock optimized;
-        while (programBlock.optimize()) ;
-
-        while ((optimized = programBlock.optimized(b -> i -> Guarantee.constant(0), i -> true)) != null) {
-            programBlock = optimized;
-            Brainfuck.j++;
+        if (args.length > 0) {
+            Path path = Paths.get(args[0]);
+            Profile profile = Profile.load(path, program);
+            if (profile == null) {
+                profile = Profile.collect(program, programBlock, 100_000_000);
+                profile.save(path);
+            }
+            profile.apply(programBlock);
         }
 
+        programBlock = optimize(programBlock);
+
         System.out.println(programBlock.toString());
+        System.out.println(LoopTable.report());
+        System.out.println(CostModel.report());
+        System.out.printf("size %d, estimated cost %.0f%n", CostModel.size(programBlock), CostModel.cost(programBlock));
 
         long time = System.nanoTime();
 
         State state = new State(7000);
 
-        programBlock.execute(state);
+        ProgramImage image = ProgramImage.of(programBlock);
+        image.execute(state);
 
         System.out.println();
         System.out.println((System.nanoTime() - time) / 1_000_000_000d);
-        System.out.println(Arrays.toString(state.tape));
+        System.out.println(state.tape);
+        if (LoopMemo.enabled) {
+            System.out.println(LoopMemo.report());
+        }
+    }
+
+    /**
+     * Runs the optimizer to a fixpoint, first on every position without context and then on the whole program with
+     * the guarantee that the tape starts zeroed. Finally adds to adjacent cells are packed into
+     * {@link Instruction.AddVector}s, the remaining straight-line code is lowered to {@link Instruction.BasicBlock}s and,
+     * when {@link Instruction.Parallel#enabled}, independent top-level loops are grouped into
+     * {@link Instruction.Parallel}s. The optimizer keeps static state, so only one block is optimized at a time. The
+     * whole run and each pass are recorded as {@link Events}.
+     */
+    static synchronized InstructionBlock optimize(InstructionBlock programBlock) {
+        Events.Optimize event = new Events.Optimize();
+        event.begin();
+        int size = CostModel.size(programBlock);
+        long rewrites = InstructionBlock.rewrites.sum();
+        passes = 0;
+        CostModel.reset(size);
+        while (pass("context free", programBlock::optimize)) ;
+
+        InstructionBlock optimized;
+        while ((optimized = pass("zero tape", zeroTape(programBlock))) != null) {
+            programBlock = optimized;
+        }
+        InstructionBlock program = programBlock;
+        pass("add vectors", () -> Instruction.AddVector.lower(program));
+        pass("basic blocks", () -> Instruction.BasicBlock.lower(program, i -> Guarantee.constant(0)));
+        pass("parallel", () -> Instruction.Parallel.lower(program));
+        event.end();
+        if (event.shouldCommit()) {
+            event.sizeBefore = size;
+            event.sizeAfter = CostModel.size(program);
+            event.passes = passes;
+            event.rewrites = InstructionBlock.rewrites.sum() - rewrites;
+            event.commit();
+        }
+        return program;
+    }
+
+    @NotNull
+    private static Supplier<InstructionBlock> zeroTape(@NotNull InstructionBlock block) {
+        return () -> block.optimized(b -> i -> Guarantee.constant(0), i -> true);
+    }
+
+    /**
+     * Runs one pass of the optimizer and records it.
+     *
+     * @return what the pass returned, whether it changed the program or the changed program
+     */
+    private static <T> T pass(@NotNull String name, @NotNull Supplier<T> pass) {
+        Events.Pass event = new Events.Pass();
+        event.begin();
+        long rewrites = InstructionBlock.rewrites.sum();
+        passes++;
+        T changed = pass.get();
+        event.end();
+        if (event.shouldCommit()) {
+            event.pass = name;
+            event.rewrites = InstructionBlock.rewrites.sum() - rewrites;
+            event.commit();
+        }
+        return changed;
     }
 }
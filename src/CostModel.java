@@ -0,0 +1,107 @@
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Static estimates of code size and execution cost, and the growth budget transformations that copy code draw from.
+ * <p>
+ * Size counts instructions, including those in nested blocks. Cost assumes a loop runs {@link #LOOP_TRIPS} times, a
+ * {@link Instruction.Repeat} its known count, and a conditional block half of the time. Transformations that grow
+ * the code ask {@link #allow} first; a single transformation may not add more than {@link #maxGrowth} instructions,
+ * and all of them together no more than the budget set by {@link #reset} for the current program.
+ */
+final class CostModel {
+
+    static final int LOOP_TRIPS = 16;
+
+    static int maxGrowth = 64;
+    static int growthFactor = 2;
+    static int minBudget = 256;
+
+    private static long budget = minBudget;
+    private static long spent = 0;
+
+    private static final Map<String, int[]> stats = new TreeMap<>();
+
+    private CostModel() {
+    }
+
+    static int size(@NotNull Instruction inst) {
+        return inst instanceof Instruction.Control ? 1 + size(((Instruction.Control) inst).block) : 1;
+    }
+
+    static int size(@NotNull InstructionBlock block) {
+        int size = 0;
+        for (Instruction inst : block) {
+            size += size(inst);
+        }
+        return size;
+    }
+
+    static double cost(@NotNull Instruction inst) {
+        if (inst instanceof Instruction.WhileLoop) {
+            return 1 + LOOP_TRIPS * (1 + cost(((Instruction.WhileLoop) inst).block));
+        } else if (inst instanceof Instruction.Repeat) {
+            return 1 + ((Instruction.Repeat) inst).count * cost(((Instruction.Repeat) inst).block);
+        } else if (inst instanceof Instruction.Parallel) {
+            return 1 + cost(((Instruction.Parallel) inst).block);
+        } else if (inst instanceof Instruction.Control) {
+            return 1 + cost(((Instruction.Control) inst).block) / 2;
+        }
+        return 1;
+    }
+
+    static double cost(@NotNull InstructionBlock block) {
+        double cost = 0;
+        for (Instruction inst : block) {
+            cost += cost(inst);
+        }
+        return cost;
+    }
+
+    /**
+     * Starts the budget for a program of the given size.
+     */
+    static synchronized void reset(int size) {
+        budget = Math.max(minBudget, (long) size * growthFactor);
+        spent = 0;
+    }
+
+    /**
+     * Asks whether a transformation may add {@code growth} instructions, and charges them to the budget if so.
+     */
+    static synchronized boolean allow(@NotNull String transformation, int growth) {
+        int[] counts = stats.computeIfAbsent(transformation, t -> new int[2]);
+        if (growth > 0 && (growth > maxGrowth || spent + growth > budget)) {
+            counts[1]++;
+            return false;
+        }
+        spent += Math.max(growth, 0);
+        counts[0]++;
+        return true;
+    }
+
+    static synchronized void clear() {
+        stats.clear();
+        spent = 0;
+    }
+
+    /**
+     * Number of times a transformation was rejected since the last {@link #clear}.
+     */
+    static synchronized int rejected(@NotNull String transformation) {
+        int[] counts = stats.get(transformation);
+        return counts == null ? 0 : counts[1];
+    }
+
+    @NotNull
+    static synchronized String report() {
+        StringBuilder s = new StringBuilder(String.format("growth: %d/%d", spent, budget));
+        for (Map.Entry<String, int[]> entry : stats.entrySet()) {
+            s.append(String.format(", %s %d accepted %d rejected", entry.getKey(), entry.getValue()[0],
+                    entry.getValue()[1]));
+        }
+        return s.toString();
+    }
+}
@@ -0,0 +1,113 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Java Flight Recorder events for the phases a program goes through, so time spent parsing, optimizing and running it
+ * shows up next to GC and CPU data in a recording. Events that are not enabled in the recording cost one check each.
+ * <p>
+ * Loops run far too often to record every run, so only one in {@link #loopSampling} runs of a loop is timed.
+ */
+final class Events {
+
+    static int loopSampling = 1024;
+
+    private static final EventType LOOP = EventType.getEventType(Loop.class);
+    /**
+     * Runs of a loop left on each thread until the next sampled one.
+     */
+    private static final ThreadLocal<int[]> countdown = ThreadLocal.withInitial(() -> new int[]{1});
+
+    private Events() {
+    }
+
+    /**
+     * Whether to record this run of a loop. Nothing is counted while loop events are not recorded, and a lower
+     * {@link #loopSampling} applies from the next run.
+     */
+    static boolean sampleLoop() {
+        if (!LOOP.isEnabled()) {
+            return false;
+        }
+        int[] runs = countdown.get();
+        if (--runs[0] > 0 && runs[0] < loopSampling) {
+            return false;
+        }
+        runs[0] = loopSampling;
+        return true;
+    }
+
+    /**
+     * Instruction text shortened to one line for an event field.
+     */
+    @NotNull
+    static String describe(@NotNull Object inst) {
+        String s = inst.toString().replaceAll("\\s*\\n\\s*", "; ");
+        return s.length() > 200 ? s.substring(0, 200) + "..." : s;
+    }
+
+    @Name("brainfuck.Parse")
+    @Label("Parse")
+    @Category("Brainfuck")
+    @StackTrace(false)
+    static final class Parse extends Event {
+        @Label("Source Length")
+        int length;
+        @Label("Instructions")
+        int instructions;
+    }
+
+    @Name("brainfuck.Optimize")
+    @Label("Optimize")
+    @Category("Brainfuck")
+    @Description("A whole run of the optimizer over a program")
+    @StackTrace(false)
+    static final class Optimize extends Event {
+        @Label("Size Before")
+        int sizeBefore;
+        @Label("Size After")
+        int sizeAfter;
+        @Label("Passes")
+        int passes;
+        @Label("Rewrites")
+        long rewrites;
+    }
+
+    @Name("brainfuck.OptimizerPass")
+    @Label("Optimizer Pass")
+    @Category("Brainfuck")
+    @Description("One pass of the optimizer over the top-level block")
+    @StackTrace(false)
+    static final class Pass extends Event {
+        @Label("Pass")
+        String pass;
+        @Label("Rewrites")
+        long rewrites;
+    }
+
+    @Name("brainfuck.Execute")
+    @Label("Execute")
+    @Category("Brainfuck")
+    @StackTrace(false)
+    static final class Execute extends Event {
+        @Label("Engine")
+        String engine;
+    }
+
+    @Name("brainfuck.Loop")
+    @Label("Loop")
+    @Category("Brainfuck")
+    @Description("A sampled run of a loop")
+    @StackTrace(false)
+    static final class Loop extends Event {
+        @Label("Loop")
+        String loop;
+        @Label("Pointer")
+        int pointer;
+    }
+}
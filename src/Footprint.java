@@ -0,0 +1,60 @@
+import org.jetbrains.annotations.NotNull;
+
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Cells an instruction sequence may read or write, relative to the pointer on entry.
+ * <p>
+ * The footprint is static: it covers every access of every path, so a window that contains it can be checked against
+ * the tape once instead of on each access. Loops that move the pointer by a data-dependent amount make it unbounded.
+ */
+final class Footprint {
+
+    final SortedSet<Integer> reads = new TreeSet<>();
+    final SortedSet<Integer> writes = new TreeSet<>();
+
+    /**
+     * Pointer relative to entry at the point currently being scanned.
+     */
+    int pointer = 0;
+    boolean io = false;
+    boolean bounded = true;
+
+    void read(int offset) {
+        reads.add(pointer + offset);
+    }
+
+    void write(int offset) {
+        writes.add(pointer + offset);
+    }
+
+    @NotNull
+    static Footprint of(@NotNull Iterable<Instruction> instructions) {
+        Footprint footprint = new Footprint();
+        for (Instruction inst : instructions) {
+            inst.footprint(footprint);
+        }
+        return footprint;
+    }
+
+    /**
+     * Lowest offset touched, or 0 when nothing is.
+     */
+    int min() {
+        int min = reads.isEmpty() ? 0 : reads.first();
+        return writes.isEmpty() ? min : Math.min(min, writes.first());
+    }
+
+    /**
+     * Highest offset touched, or 0 when nothing is.
+     */
+    int max() {
+        int max = reads.isEmpty() ? 0 : reads.last();
+        return writes.isEmpty() ? max : Math.max(max, writes.last());
+    }
+
+    boolean touches(int offset) {
+        return reads.contains(offset) || writes.contains(offset);
+    }
+}
@@ -17,7 +17,49 @@ abstract class Guarantee {
     }
 
     boolean inequalsValue(byte i) {
-        return false;
+        int value = i & 0xFF;
+        return value < lower() || value > upper() || (value & zeros()) != 0 || (~value & ones()) != 0;
+    }
+
+    /**
+     * Smallest unsigned value the cell may hold.
+     */
+    int lower() {
+        return 0;
+    }
+
+    /**
+     * Largest unsigned value the cell may hold.
+     */
+    int upper() {
+        return 255;
+    }
+
+    /**
+     * Mask of the bits known to be clear.
+     */
+    int zeros() {
+        return 0;
+    }
+
+    /**
+     * Mask of the bits known to be set.
+     */
+    int ones() {
+        return 0;
+    }
+
+    /**
+     * Replaces a guarantee whose range or known bits leave a single value with that constant.
+     */
+    @NotNull
+    Guarantee simplified() {
+        if (lower() == upper()) {
+            return constant(lower());
+        } else if ((zeros() | ones()) == 0xFF) {
+            return constant(ones());
+        }
+        return this;
     }
 
     byte getValue() {
@@ -78,7 +120,7 @@ abstract class Guarantee {
             }
         }
 
-        return new Sum(p, c);
+        return new Sum(p, c).simplified();
     }
 
     @NotNull Guarantee conditional(@NotNull Guarantee ifTrue, @NotNull Guarantee ifFalse) {
@@ -88,7 +130,7 @@ abstract class Guarantee {
             return ifTrue;
         if (ifTrue.equals(ifFalse))
             return ifTrue;
-        return new Conditional(this, ifTrue, ifFalse);
+        return new Conditional(this, ifTrue, ifFalse).simplified();
     }
 
     @NotNull Guarantee times(int n) {
@@ -98,7 +140,56 @@ abstract class Guarantee {
             case 0:
                 return Guarantee.constant(0);
             default:
-                return new Sum(this, n);
+                return new Sum(this, n).simplified();
+        }
+    }
+
+    /**
+     * Known bits of an 8-bit value, propagated through addition and multiplication modulo 256.
+     */
+    private static final class Bits {
+        final int zeros;
+        final int ones;
+
+        Bits(int zeros, int ones) {
+            this.zeros = zeros & 0xFF;
+            this.ones = ones & 0xFF;
+        }
+
+        @NotNull
+        static Bits of(@NotNull Guarantee guarantee) {
+            return new Bits(guarantee.zeros(), guarantee.ones());
+        }
+
+        @NotNull
+        static Bits constant(int value) {
+            return new Bits(~value, value);
+        }
+
+        @NotNull
+        Bits plus(@NotNull Bits other) {
+            int sumZero = (~zeros & 0xFF) + (~other.zeros & 0xFF);
+            int sumOne = ones + other.ones;
+            int carryZero = ~(sumZero ^ zeros ^ other.zeros);
+            int carryOne = sumOne ^ ones ^ other.ones;
+            int known = (zeros | ones) & (other.zeros | other.ones) & (carryZero | carryOne);
+            return new Bits(~sumZero & known, sumOne & known);
+        }
+
+        /**
+         * The low bits of a product only depend on the low bits of its factors, and every trailing zero of the
+         * multiplier adds a known zero at the bottom.
+         */
+        @NotNull
+        Bits times(int n) {
+            if ((n & 0xFF) == 0) {
+                return constant(0);
+            }
+            int lowKnown = Math.min(8, Integer.numberOfTrailingZeros(~(zeros | ones))
+                    + Integer.numberOfTrailingZeros(n));
+            int mask = (1 << lowKnown) - 1;
+            int low = ones * n;
+            return new Bits(~low & mask, low & mask);
         }
     }
 
@@ -108,6 +199,56 @@ abstract class Guarantee {
         final Map<Guarantee, Integer> parts;
         final byte constant;
 
+        private int lower = 0;
+        private int upper = 255;
+        private int zeros = 0;
+        private int ones = 0;
+
+        /**
+         * Adds up the ranges and known bits of the parts. A range whose ends fall into different multiples of 256
+         * wraps around and is widened to every value.
+         */
+        private void summarize() {
+            long low = constant & 0xFF;
+            long high = constant & 0xFF;
+            Bits bits = Bits.constant(constant);
+            for (Map.Entry<Guarantee, Integer> e : parts.entrySet()) {
+                Guarantee g = e.getKey();
+                int n = e.getValue();
+                long a = (long) g.lower() * n;
+                long b = (long) g.upper() * n;
+                low += Math.min(a, b);
+                high += Math.max(a, b);
+                bits = bits.plus(Bits.of(g).times(n));
+            }
+            if (Math.floorDiv(low, 256L) == Math.floorDiv(high, 256L)) {
+                lower = (int) Math.floorMod(low, 256L);
+                upper = (int) Math.floorMod(high, 256L);
+            }
+            zeros = bits.zeros;
+            ones = bits.ones;
+        }
+
+        @Override
+        int lower() {
+            return lower;
+        }
+
+        @Override
+        int upper() {
+            return upper;
+        }
+
+        @Override
+        int zeros() {
+            return zeros;
+        }
+
+        @Override
+        int ones() {
+            return ones;
+        }
+
         @Override
         public int hashCode() {
             return parts.entrySet().stream().mapToInt(e -> e.getKey().hashCode() * e.getValue()).sum();
@@ -116,6 +257,7 @@ abstract class Guarantee {
         Sum(@NotNull Map<Guarantee, Integer> parts, byte constant) {
             this.parts = parts;
             this.constant = constant;
+            summarize();
         }
 
         Sum(@NotNull Guarantee a, @NotNull Guarantee b, boolean subtract) {
@@ -149,6 +291,7 @@ abstract class Guarantee {
 
             parts = Collections.unmodifiableMap(p);
             constant = c;
+            summarize();
         }
 
         Sum(@NotNull Guarantee guarantee, int n) {
@@ -170,6 +313,7 @@ abstract class Guarantee {
                 }
             parts = Collections.unmodifiableMap(p);
             constant = c;
+            summarize();
         }
 
         @Override
@@ -255,6 +399,26 @@ abstract class Guarantee {
             this.value = value;
         }
 
+        @Override
+        int lower() {
+            return value & 0xFF;
+        }
+
+        @Override
+        int upper() {
+            return value & 0xFF;
+        }
+
+        @Override
+        int zeros() {
+            return ~value & 0xFF;
+        }
+
+        @Override
+        int ones() {
+            return value & 0xFF;
+        }
+
         @Override
         boolean inequalsValue(byte i) {
             return value != i;
@@ -287,7 +451,27 @@ abstract class Guarantee {
 
         @Override
         boolean inequalsValue(byte i) {
-            return ifTrue.inequalsValue(i) && ifFalse.inequalsValue(i);
+            return super.inequalsValue(i) || ifTrue.inequalsValue(i) && ifFalse.inequalsValue(i);
+        }
+
+        @Override
+        int lower() {
+            return Math.min(ifTrue.lower(), ifFalse.lower());
+        }
+
+        @Override
+        int upper() {
+            return Math.max(ifTrue.upper(), ifFalse.upper());
+        }
+
+        @Override
+        int zeros() {
+            return ifTrue.zeros() & ifFalse.zeros();
+        }
+
+        @Override
+        int ones() {
+            return ifTrue.ones() & ifFalse.ones();
         }
 
         @Override
@@ -0,0 +1,282 @@
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+/**
+ * Compiles successive versions of one program, optimizing again only what an edit can change.
+ * <p>
+ * A loop body is first optimized on its own, where the only thing known on entry is that the loop counter is non-zero.
+ * Those incoming guarantees are the same wherever the loop appears, so the result depends on nothing but the source
+ * between the brackets and can be shared by every version containing that loop.
+ * <p>
+ * The program is then split into regions, each a run of top-level code up to and including a loop, and the code after
+ * the last loop. A region is optimized with what the regions before it leave known about the cells it touches,
+ * starting from a zeroed tape, and kept under its source and those incoming guarantees. So a region is only optimized
+ * again when it was edited or when an edit before it changed what it may rely on. Writes a later region ignores are
+ * not known to the regions before it, so only the last region drops writes the end of the program ignores.
+ * <p>
+ * Every result gets copies of the bodies and regions it reuses, so no two versions share an instruction.
+ */
+class IncrementalCompiler {
+
+    @NotNull
+    private Map<String, InstructionBlock> loops = new HashMap<>();
+    @NotNull
+    private Map<String, Region> regions = new HashMap<>();
+    @Nullable
+    private String previous;
+    @Nullable
+    private InstructionBlock previousResult;
+
+    int reused = 0;
+    int optimized = 0;
+    int regionsReused = 0;
+    int regionsOptimized = 0;
+
+    /**
+     * What is known about the tape between two regions, relative to the pointer: the cells with a value or null when
+     * it is unknown, and whether all other cells are zero or unknown.
+     */
+    private static final class Context {
+        @NotNull
+        final TreeMap<Integer, Byte> cells;
+        final boolean zero;
+
+        Context(@NotNull TreeMap<Integer, Byte> cells, boolean zero) {
+            this.cells = cells;
+            this.zero = zero;
+        }
+
+        @Nullable
+        Byte value(int cell) {
+            return cells.containsKey(cell) ? cells.get(cell) : zero ? Byte.valueOf((byte) 0) : null;
+        }
+    }
+
+    /**
+     * An optimized region, with the cells it writes and what is known about them afterwards.
+     */
+    private static final class Region {
+        @NotNull
+        final InstructionBlock block;
+        final boolean bounded;
+        final int shift;
+        /**
+         * Values of the written cells relative to the pointer on entry, or null when unknown.
+         */
+        @NotNull
+        final TreeMap<Integer, Byte> writes;
+
+        Region(@NotNull InstructionBlock block, boolean bounded, int shift, @NotNull TreeMap<Integer, Byte> writes) {
+            this.block = block;
+            this.bounded = bounded;
+            this.shift = shift;
+            this.writes = writes;
+        }
+
+        @NotNull
+        Context after(@NotNull Context before) {
+            if (!bounded) {
+                return new Context(new TreeMap<>(), false);
+            }
+            TreeMap<Integer, Byte> cells = new TreeMap<>();
+            before.cells.forEach((cell, value) -> {
+                if (!writes.containsKey(cell)) {
+                    cells.put(cell - shift, value);
+                }
+            });
+            writes.forEach((cell, value) -> cells.put(cell - shift, value));
+            return new Context(cells, before.zero);
+        }
+    }
+
+    @NotNull
+    InstructionBlock compile(@NotNull String program) {
+        program = program.replaceAll("[^.,\\[\\]<>+-]", "");
+        if (program.equals(previous) && previousResult != null) {
+            reused = loops.size();
+            optimized = 0;
+            regionsReused = regions.size();
+            regionsOptimized = 0;
+            return previousResult.copy();
+        }
+        reused = 0;
+        optimized = 0;
+        regionsReused = 0;
+        regionsOptimized = 0;
+        Map<String, InstructionBlock> currentLoops = new HashMap<>();
+        Map<String, Region> current = new HashMap<>();
+        InstructionBlock result = new InstructionBlock(new ArrayList<>());
+        // the optimizer keeps static state, see Brainfuck#optimize
+        synchronized (Brainfuck.class) {
+            List<String> sources = new ArrayList<>();
+            List<InstructionBlock> parsed = new ArrayList<>();
+            int size = 0;
+            int start = 0;
+            for (int end : ends(program)) {
+                InstructionBlock block = new InstructionBlock(parse(program, start, end, currentLoops));
+                sources.add(program.substring(start, end));
+                parsed.add(block);
+                size += CostModel.size(block);
+                start = end;
+            }
+            loops = currentLoops;
+
+            CostModel.reset(size);
+            Context context = new Context(new TreeMap<>(), true);
+            for (int i = 0; i < parsed.size(); i++) {
+                boolean last = i == parsed.size() - 1;
+                Footprint footprint = Footprint.of(parsed.get(i));
+                String key = key(sources.get(i), footprint, context, last);
+                Region region = current.get(key);
+                if (region == null) {
+                    region = regions.get(key);
+                }
+                if (region != null) {
+                    regionsReused++;
+                } else {
+                    regionsOptimized++;
+                    region = optimize(parsed.get(i), footprint, context, last);
+                }
+                current.put(key, region);
+                result.addAll(region.block.copy());
+                context = region.after(context);
+            }
+        }
+        regions = current;
+
+        previousResult = result;
+        previous = program;
+        return result.copy();
+    }
+
+    /**
+     * Ends of the regions of a program: after each top-level loop, and at the end of the code after the last one.
+     */
+    @NotNull
+    private static List<Integer> ends(@NotNull String program) {
+        List<Integer> ends = new ArrayList<>();
+        int depth = 0;
+        for (int index = 0; index < program.length(); index++) {
+            if (program.charAt(index) == '[') {
+                depth++;
+            } else if (program.charAt(index) == ']' && --depth == 0) {
+                ends.add(index + 1);
+            }
+        }
+        if (ends.isEmpty() ? !program.isEmpty() : ends.get(ends.size() - 1) < program.length()) {
+            ends.add(program.length());
+        }
+        return ends;
+    }
+
+    /**
+     * Key of a region: its source and what it may rely on. A region with a bounded footprint only learns about the
+     * cells it touches, so only those are part of the key.
+     */
+    @NotNull
+    private static String key(@NotNull String source, @NotNull Footprint footprint, @NotNull Context context,
+            boolean last) {
+        StringBuilder key = new StringBuilder(source).append(last ? "$" : "|");
+        if (footprint.bounded) {
+            TreeSet<Integer> cells = new TreeSet<>(footprint.reads);
+            cells.addAll(footprint.writes);
+            for (int cell : cells) {
+                key.append(cell).append('=').append(context.value(cell)).append(',');
+            }
+        } else {
+            key.append(context.cells).append(context.zero ? "0" : "?");
+        }
+        return key.toString();
+    }
+
+    /**
+     * Optimizes a region like {@link Brainfuck#optimize} does a program, with the incoming guarantees of its key.
+     */
+    @NotNull
+    private static Region optimize(@NotNull InstructionBlock block, @NotNull Footprint footprint,
+            @NotNull Context context, boolean last) {
+        Function<InstructionBlock, Function<Integer, Guarantee>> incoming = b -> cell -> {
+            Byte value = footprint.bounded && !footprint.touches(cell) ? null : context.value(cell);
+            return value != null ? Guarantee.constant(value) : new Guarantee.Unknown(b, cell);
+        };
+        while (block.optimize()) ;
+        InstructionBlock optimized;
+        while ((optimized = block.optimized(incoming, last ? i -> true : i -> false)) != null) {
+            block = optimized;
+        }
+        Footprint after = Footprint.of(block);
+        TreeMap<Integer, Byte> writes = new TreeMap<>();
+        if (after.bounded) {
+            Function<Integer, Guarantee> guarantees = incoming.apply(block);
+            for (int cell : after.writes) {
+                Guarantee value = block.guarantees(cell - after.pointer, guarantees);
+                writes.put(cell, value.isConstant() ? value.getValue() : null);
+            }
+        }
+        Instruction.AddVector.lower(block);
+        Instruction.BasicBlock.lower(block, incoming.apply(block));
+        Instruction.Parallel.lower(block);
+        return new Region(block, after.bounded, after.pointer, writes);
+    }
+
+    @NotNull
+    private List<Instruction> parse(@NotNull String program, int start, int end,
+            @NotNull Map<String, InstructionBlock> current) {
+        List<Instruction> instructions = new ArrayList<>();
+        int index = start;
+        while (index < end) {
+            if (program.charAt(index) == '[') {
+                int close = matching(program, index);
+                String source = program.substring(index, close + 1);
+                Instruction.WhileLoop whileLoop = new Instruction.WhileLoop(0);
+
+                InstructionBlock body = current.get(source);
+                if (body == null) {
+                    body = loops.get(source);
+                }
+                if (body != null) {
+                    reused++;
+                    whileLoop.block.addAll(body.copy());
+                } else {
+                    optimized++;
+                    whileLoop.block.addAll(parse(program, index + 1, close, current));
+                    LoopTable.optimize(whileLoop.block);
+                    body = whileLoop.block.copy();
+                }
+                // the regions are optimized with loop bodies rewritten in place, so each loop gets its own copy
+                current.put(source, body);
+                instructions.add(whileLoop);
+                index = close + 1;
+            } else if (program.charAt(index) == ']') {
+                throw new IllegalArgumentException("Unmatched ] at " + index);
+            } else {
+                instructions.add(InstructionBlock.instruction(program.charAt(index)));
+                index++;
+            }
+        }
+        return instructions;
+    }
+
+    private static int matching(@NotNull String program, int open) {
+        int depth = 0;
+        for (int index = open; index < program.length(); index++) {
+            if (program.charAt(index) == '[') {
+                depth++;
+            } else if (program.charAt(index) == ']') {
+                depth--;
+                if (depth == 0) {
+                    return index;
+                }
+            }
+        }
+        throw new IllegalArgumentException("Unmatched [ at " + open);
+    }
+}
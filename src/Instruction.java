@@ -1,10 +1,26 @@
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 
 import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
@@ -28,7 +44,31 @@ abstract class Instruction implements Cloneable {
 
     abstract boolean ignores(InstructionBlock.Position position, int request, Predicate<Integer> postBlockIgnores);
 
-    private static final class SetValue extends StableInstruction {
+    abstract void footprint(@NotNull Footprint footprint);
+
+    /**
+     * Appends the instruction to a generated Java class, see {@link Transpiler}.
+     */
+    abstract void emit(@NotNull Transpiler.Source t);
+
+    /**
+     * Copy that shares no state with this instruction, for running a program on several threads at once. Control
+     * instructions copy their blocks and start without what earlier runs left on them; the others are immutable and
+     * return themselves.
+     */
+    @NotNull
+    Instruction copy() {
+        return this;
+    }
+
+    /**
+     * @return whether the instruction is a loop a {@link Profile} marked cold, which the optimizer leaves as parsed
+     */
+    static boolean cold(@NotNull Instruction inst) {
+        return inst instanceof WhileLoop && ((WhileLoop) inst).cold;
+    }
+
+    static final class SetValue extends PureInstruction {
 
         @Override
         boolean optimize(@NotNull InstructionBlock.Position position, @NotNull Function<Integer, Guarantee> preBlockGuarantees,
@@ -37,7 +77,7 @@ abstract class Instruction implements Cloneable {
                     || position.ignores(offset, postBlockIgnores)) {
                 position.replaceBefore(position.next);
                 return true;
-            } else return false;
+            } else return Fill.fuse(position);
         }
 
         private final byte value;
@@ -50,10 +90,25 @@ abstract class Instruction implements Cloneable {
 
         @Override
         public String execute(@NotNull State state) {
-            state.tape[state.pointer + offset] = value;
+            state.tape.set(state.pointer + offset, value);
             return "";
         }
 
+        @Override
+        void executeUnchecked(@NotNull byte[] tape, int pointer) {
+            Unchecked.put(tape, pointer + offset, value);
+        }
+
+        @Override
+        void emit(@NotNull Transpiler.Source t) {
+            t.line(Transpiler.Source.cell(offset) + " = " + value + ";");
+        }
+
+        @Override
+        void footprint(@NotNull Footprint footprint) {
+            footprint.write(offset);
+        }
+
         @NotNull
         @Override
         public String toString() {
@@ -83,623 +138,2882 @@ abstract class Instruction implements Cloneable {
         }
     }
 
-    static final class Shift extends ConstantInstruction {
-        final int amount;
+    /**
+     * Sets every {@code stride}th cell from {@code start} on, {@code count} cells in all, to one value.
+     */
+    static final class Fill extends PureInstruction {
+        private final byte value;
+        private final int start;
+        private final int stride;
+        private final int count;
 
-        Shift(int amount) {
-            this.amount = amount;
+        Fill(byte value, int start, int stride, int count) {
+            this.value = value;
+            this.start = start;
+            this.stride = stride;
+            this.count = count;
         }
 
-        @Override
-        public String toString() {
-            return String.format("shift %d", amount);
+        boolean covers(int cell) {
+            return cell >= start && (cell - start) % stride == 0 && (cell - start) / stride < count;
         }
 
-        @Override
-        boolean ignores(@NotNull InstructionBlock.Position position, int request, Predicate<Integer> postBlockIgnores) {
-            return position.ignores(request - amount, postBlockIgnores);
+        @NotNull
+        private SortedSet<Integer> cells() {
+            SortedSet<Integer> cells = new TreeSet<>();
+            for (int i = 0; i < count; i++) {
+                cells.add(start + i * stride);
+            }
+            return cells;
+        }
+
+        /**
+         * Replaces the instruction at the position and the next one with a single fill, when both set cells to the
+         * same value and the cells they set together are evenly spaced.
+         *
+         * @return whether the instructions were fused
+         */
+        static boolean fuse(@NotNull InstructionBlock.Position position) {
+            if (position.next == null) {
+                return false;
+            }
+            Fill first = of(position.instruction);
+            Fill second = of(position.next.instruction);
+            if (first == null || second == null || first.value != second.value) {
+                return false;
+            }
+            SortedSet<Integer> cells = first.cells();
+            cells.addAll(second.cells());
+            if (cells.size() < 2) {
+                return false;
+            }
+            int stride = cells.tailSet(cells.first() + 1).first() - cells.first();
+            if ((long) stride * (cells.size() - 1) != cells.last() - cells.first()) {
+                return false;
+            }
+            for (int cell : cells) {
+                if ((cell - cells.first()) % stride != 0) {
+                    return false;
+                }
+            }
+            Fill fill = new Fill(first.value, cells.first(), stride, cells.size());
+            InstructionBlock.Position pos = new InstructionBlock.Position(fill, position.block);
+            position.next.replaceAfter(pos);
+            position.replaceBefore(pos);
+            return true;
+        }
+
+        @Nullable
+        private static Fill of(@NotNull Instruction inst) {
+            if (inst instanceof Fill) {
+                return (Fill) inst;
+            } else if (inst instanceof SetValue) {
+                return new Fill(((SetValue) inst).value, ((SetValue) inst).offset, 1, 1);
+            }
+            return null;
         }
 
         @Override
-        public boolean optimize(@NotNull InstructionBlock.Position position,
-                Function<Integer, Guarantee> preBlockGuarantees,
-                Predicate<Integer> postBlockIgnores) {
-            if (amount == 0) {
-                position.replaceBefore(position.next);
-                return true;
-            } else if (position.next != null) {
-                InstructionBlock.Position instPos = position;
-                while (instPos.next != null && !(instPos.next.instruction instanceof Shift)) {
-                    instPos = instPos.next;
-                    instPos.offset(amount);
-                }
-                if (instPos.next != null) {
-                    InstructionBlock.Position opt = new InstructionBlock.Position(new Shift(
-                            this.amount + ((Shift) instPos.next.instruction).amount), position.block);
-                    instPos.next.replaceAfter(opt);
-                    instPos.next.replaceBefore(opt);
-                } else {
-                    InstructionBlock.Position opt = new InstructionBlock.Position(new Shift(this.amount), position.block);
-                    opt.previous = instPos;
-                    instPos.next = opt;
-                    position.block.last = opt;
-                }
+        boolean optimize(@NotNull InstructionBlock.Position position,
+                @NotNull Function<Integer, Guarantee> preBlockGuarantees, Predicate<Integer> postBlockIgnores) {
+            boolean redundant = true;
+            for (int i = 0; i < count && redundant; i++) {
+                int cell = start + i * stride;
+                redundant = position.ignores(cell, postBlockIgnores)
+                        || position.guarantees(cell, preBlockGuarantees).equalsValue(value);
+            }
+            if (redundant) {
                 position.replaceBefore(position.next);
                 return true;
-            } else return false;
+            }
+            return fuse(position);
         }
 
         @Override
         Guarantee guarantees(@NotNull InstructionBlock.Position position, int request,
                 @NotNull Function<Integer, Guarantee> preBlockGuarantees) {
-            return position.guarantees(request + amount, preBlockGuarantees);
+            if (covers(request)) {
+                return Guarantee.constant(value);
+            }
+            return position.guarantees(request, preBlockGuarantees);
         }
 
-        @NotNull
         @Override
-        public Shift offset(int offset) {
-            return this;
+        boolean ignores(@NotNull InstructionBlock.Position position, int request, Predicate<Integer> postBlockIgnores) {
+            return covers(request) || position.ignores(request, postBlockIgnores);
         }
 
         @Override
         public String execute(@NotNull State state) {
-            state.pointer += amount;
+            if (stride == 1) {
+                state.tape.fill(state.pointer + start, state.pointer + start + count, value);
+            } else {
+                for (int i = 0; i < count; i++) {
+                    state.tape.set(state.pointer + start + i * stride, value);
+                }
+            }
             return "";
         }
-    }
-
-    private static final class Copy extends StableInstruction {
-        private final int from;
-        private final int to;
-        private final byte multiplier;
-
-        Copy(int from, int to, int multiplier) {
-            this(from, to, (byte) multiplier);
-        }
-
-        Copy(int from, int to) {
-            this(from, to, 1);
-        }
-
 
         @Override
-        boolean ignores(@NotNull InstructionBlock.Position position, int request, Predicate<Integer> postBlockIgnores) {
-            if (request == from) {
-                if (multiplier != 0) {
-                    return false;
+        void executeUnchecked(@NotNull byte[] tape, int pointer) {
+            if (stride == 1) {
+                Arrays.fill(tape, pointer + start, pointer + start + count, value);
+            } else {
+                for (int i = 0; i < count; i++) {
+                    Unchecked.put(tape, pointer + start + i * stride, value);
                 }
             }
-            return position.ignores(request, postBlockIgnores);
-        }
-
-        @Override
-        Guarantee guarantees(@NotNull InstructionBlock.Position position, int request,
-                @NotNull Function<Integer, Guarantee> preBlockGuarantees) {
-            if (request == to) {
-                return position.guarantees(to, preBlockGuarantees).plus(position.guarantees(from, preBlockGuarantees).times(multiplier));
-            } else
-                return position.guarantees(request, preBlockGuarantees);
         }
 
         @Override
-        boolean optimize(@NotNull InstructionBlock.Position position, @NotNull Function<Integer, Guarantee> preBlockGuarantees,
-                Predicate<Integer> postBlockIgnores) {
-            if (position.next != null) {
-                Instruction next = position.next.instruction;
-                if (next instanceof Write && multiplier == 1 && ((Write) next).multiplier == 1
-                        && ((Write) next).to == from && ((Write) next).from == to
-                        && position.next.ignores(to, postBlockIgnores)) {
-                    Instruction newCopy = new Copy(to, from);
-                    InstructionBlock.Position copyPos = new InstructionBlock.Position(newCopy, position.block);
-                    position.replaceBefore(copyPos);
-                    position.next.replaceAfter(copyPos);
-                    return true;
+        void emit(@NotNull Transpiler.Source t) {
+            if (stride == 1 && count > 4) {
+                t.line("java.util.Arrays.fill(t, p + " + start + ", p + " + (start + count) + ", (byte) " + value
+                        + ");");
+            } else {
+                for (int i = 0; i < count; i++) {
+                    t.line(Transpiler.Source.cell(start + i * stride) + " = " + value + ";");
                 }
             }
-            Guarantee fromGuarantee = position.guarantees(from, preBlockGuarantees);
-            if (fromGuarantee.isConstant()) {
-                Add add = new Add((byte) (fromGuarantee.getValue() * multiplier), to);
-                InstructionBlock.Position addPos = new InstructionBlock.Position(add, position.block);
-                position.replace(addPos);
-                return true;
-            }
-            Guarantee toGuarantee = position.guarantees(to, preBlockGuarantees);
-            if (toGuarantee.equalsValue(0)) {
-                Write write = new Write(from, to, multiplier);
-                InstructionBlock.Position writePos = new InstructionBlock.Position(write, position.block);
-                position.replace(writePos);
-                return true;
-            }
-            if (fromGuarantee.equals(toGuarantee)) {
-                InstructionBlock.Position newPos = new InstructionBlock.Position(new Write(from, to,
-                        multiplier + 1), position.block);
-                position.replace(newPos);
-                return true;
-            }
-            return false;
-        }
-
-        Copy(int from, int to, byte multiplier) {
-            this.from = from;
-            this.to = to;
-            this.multiplier = multiplier;
         }
 
         @Override
-        public String execute(@NotNull State state) {
-            if (state.tape[state.pointer + from] != 0)
-                state.tape[state.pointer + to] += state.tape[state.pointer + from] * multiplier;
-            return "";
+        void footprint(@NotNull Footprint footprint) {
+            for (int i = 0; i < count; i++) {
+                footprint.write(start + i * stride);
+            }
         }
 
         @NotNull
         @Override
         public String toString() {
-            return "copy " + from + (multiplier == 1 ? "" : "*" + multiplier) + ", " + to;
+            return "fill " + (value + 256) % 256 + ", " + start + ".." + (start + (count - 1) * stride)
+                    + (stride != 1 ? " by " + stride : "");
         }
 
         @NotNull
         @Override
-        public Copy offset(int offset) {
-            return new Copy(from + offset, to + offset, multiplier);
+        public Fill offset(int offset) {
+            return new Fill(value, start + offset, stride, count);
         }
     }
 
-    private static final class Write extends StableInstruction {
-        private final int from;
-        private final int to;
-        private final byte multiplier;
+    /**
+     * Adds to a run of adjacent cells from {@code start} on, a byte per cell, zero for cells it leaves alone. Runs
+     * eight cells at a time as one word with the carry between cells masked off (SWAR), and the rest cell by cell.
+     * <p>
+     * Built by {@link #lower} after optimization, from adds the surrounding instructions do not depend on.
+     */
+    static final class AddVector extends PureInstruction {
+        private static final long HIGH = 0x8080808080808080L;
+
+        /**
+         * Fewest adds worth packing, and whether to use word accesses at all.
+         */
+        static int minLanes = 4;
+        static boolean swar = Unchecked.UNALIGNED;
+
+        private final int start;
+        private final byte[] amounts;
+
+        AddVector(int start, @NotNull byte[] amounts) {
+            this.start = start;
+            this.amounts = amounts;
+        }
+
+        private boolean covers(int cell) {
+            return cell >= start && cell < start + amounts.length && amounts[cell - start] != 0;
+        }
+
+        /**
+         * Packs the adds in each run of pure instructions of a block and its nested blocks. An add moves to the start
+         * of its run when nothing before it in the run touches its cell; the adds that end up no more than a cell
+         * apart and span at least a word become one instruction.
+         *
+         * @return whether anything was packed
+         */
+        static boolean lower(@NotNull InstructionBlock block) {
+            boolean lowered = false;
+            InstructionBlock.Position position = block.first;
+            while (position != null) {
+                if (cold(position.instruction)) {
+                    position = position.next;
+                } else if (position.instruction instanceof Control) {
+                    lowered |= lower(((Control) position.instruction).block);
+                    position = position.next;
+                } else if (position.instruction instanceof PureInstruction) {
+                    InstructionBlock.Position end = position;
+                    while (end.next != null && end.next.instruction instanceof PureInstruction) {
+                        end = end.next;
+                    }
+                    InstructionBlock.Position next = end.next;
+                    lowered |= lower(position, end);
+                    position = next;
+                } else {
+                    position = position.next;
+                }
+            }
+            return lowered;
+        }
 
-        Write(int from, int to, byte multiplier) {
-            this.from = from;
-            this.to = to;
-            this.multiplier = multiplier;
+        private static boolean lower(@NotNull InstructionBlock.Position first, @NotNull InstructionBlock.Position end) {
+            SortedMap<Integer, Integer> hoisted = new TreeMap<>();
+            Footprint touched = new Footprint();
+            List<Instruction> rest = new ArrayList<>();
+            for (InstructionBlock.Position pos = first; pos != end.next; pos = pos.next) {
+                Instruction inst = pos.instruction;
+                if (inst instanceof Add && !touched.touches(((Add) inst).offset)) {
+                    hoisted.merge(((Add) inst).offset, (int) ((Add) inst).amount, Integer::sum);
+                } else {
+                    rest.add(inst);
+                    inst.footprint(touched);
+                }
+            }
+            hoisted.values().removeIf(amount -> (byte) (int) amount == 0);
+
+            List<Instruction> replacement = new ArrayList<>();
+            List<Integer> cells = new ArrayList<>(hoisted.keySet());
+            boolean packed = false;
+            for (int from = 0, to; from < cells.size(); from = to) {
+                for (to = from + 1; to < cells.size() && cells.get(to) - cells.get(to - 1) <= 2; to++) ;
+                int span = cells.get(to - 1) - cells.get(from) + 1;
+                if (to - from >= minLanes && span >= Long.BYTES) {
+                    byte[] amounts = new byte[span];
+                    for (int cell : cells.subList(from, to)) {
+                        amounts[cell - cells.get(from)] = (byte) (int) hoisted.get(cell);
+                    }
+                    replacement.add(new AddVector(cells.get(from), amounts));
+                    packed = true;
+                } else {
+                    for (int cell : cells.subList(from, to)) {
+                        replacement.add(new Add((byte) (int) hoisted.get(cell), cell));
+                    }
+                }
+            }
+            if (!packed) {
+                return false;
+            }
+            replacement.addAll(rest);
+            first.replace(end, replacement);
+            return true;
         }
 
-        Write(int from, int to, int multiplier) {
-            this(from, to, (byte) multiplier);
+        @Override
+        boolean optimize(@NotNull InstructionBlock.Position position,
+                @NotNull Function<Integer, Guarantee> preBlockGuarantees, Predicate<Integer> postBlockIgnores) {
+            return false;
         }
 
         @Override
         Guarantee guarantees(@NotNull InstructionBlock.Position position, int request,
                 @NotNull Function<Integer, Guarantee> preBlockGuarantees) {
-            if (request == to) {
-                return position.guarantees(from, preBlockGuarantees).times(multiplier);
-            } else
-                return position.guarantees(request, preBlockGuarantees);
+            if (covers(request)) {
+                return position.guarantees(request, preBlockGuarantees)
+                        .plus(Guarantee.constant(amounts[request - start]));
+            }
+            return position.guarantees(request, preBlockGuarantees);
         }
 
         @Override
         boolean ignores(@NotNull InstructionBlock.Position position, int request, Predicate<Integer> postBlockIgnores) {
-            return request == to || request != from && position.ignores(request, postBlockIgnores);
+            return position.ignores(request, postBlockIgnores);
         }
 
         @Override
         public String execute(@NotNull State state) {
-            state.tape[state.pointer + to] = (byte) (state.tape[state.pointer + from] * multiplier);
+            int from = state.pointer + start;
+            byte[] cells = state.tape.heap() ? state.tape.array(from, from + amounts.length - 1) : null;
+            if (cells != null) {
+                executeUnchecked(cells, state.pointer - state.tape.base(from));
+            } else {
+                for (int i = 0; i < amounts.length; i++) {
+                    if (amounts[i] != 0) {
+                        state.tape.set(from + i, (byte) (state.tape.get(from + i) + amounts[i]));
+                    }
+                }
+            }
             return "";
         }
 
-        @NotNull
         @Override
-        public String toString() {
-            return "write " + from + (multiplier == 1 ? "" : "*" + multiplier) + ", " + to;
+        void executeUnchecked(@NotNull byte[] tape, int pointer) {
+            int from = pointer + start;
+            int i = 0;
+            if (swar) {
+                for (; i + Long.BYTES <= amounts.length; i += Long.BYTES) {
+                    long cells = Unchecked.getLong(tape, from + i);
+                    long add = Unchecked.getLong(amounts, i);
+                    Unchecked.putLong(tape, from + i, ((cells & ~HIGH) + (add & ~HIGH)) ^ ((cells ^ add) & HIGH));
+                }
+            }
+            for (; i < amounts.length; i++) {
+                Unchecked.put(tape, from + i, (byte) (Unchecked.get(tape, from + i) + amounts[i]));
+            }
         }
 
-        @NotNull
         @Override
-        public Write offset(int offset) {
-            return new Write(from + offset, to + offset, multiplier);
+        void emit(@NotNull Transpiler.Source t) {
+            for (int i = 0; i < amounts.length; i++) {
+                if (amounts[i] != 0) {
+                    t.line(Transpiler.Source.cell(start + i) + " += " + amounts[i] + ";");
+                }
+            }
         }
 
         @Override
-        boolean optimize(@NotNull InstructionBlock.Position position, @NotNull Function<Integer, Guarantee> preBlockGuarantees,
-                Predicate<Integer> postBlockIgnores) {
-            if (multiplier == 0) {
-                InstructionBlock.Position newPos = new InstructionBlock.Position(new SetValue((byte) 0, to), position.block);
-                position.replace(newPos);
-                return true;
+        void footprint(@NotNull Footprint footprint) {
+            for (int i = 0; i < amounts.length; i++) {
+                footprint.read(start + i);
+                footprint.write(start + i);
             }
-            Guarantee tog = position.guarantees(to, preBlockGuarantees);
-            Guarantee fromg = position.guarantees(from, preBlockGuarantees);
-            if (tog.equals(fromg) && multiplier == 1 || position.ignores(to, postBlockIgnores)) {
-                position.replaceBefore(position.next);
-                return true;
-            } else return false;
-        }
-
-    }
-
-    static final class Add extends StableInstruction {
-        final byte amount;
-        private final int offset;
-
-        Add(byte amount, int offset) {
-            this.amount = amount;
-            this.offset = offset;
         }
 
+        @NotNull
         @Override
-        Guarantee guarantees(@NotNull InstructionBlock.Position position, int request,
-                @NotNull Function<Integer, Guarantee> preBlockGuarantees) {
-            if (request == offset) {
-                return position.guarantees(offset, preBlockGuarantees).plus(Guarantee.constant(amount));
-            } else
-                return position.guarantees(request, preBlockGuarantees);
+        public String toString() {
+            StringBuilder s = new StringBuilder("add vector " + start + ":");
+            for (byte amount : amounts) {
+                s.append(' ').append(amount);
+            }
+            return s.toString();
         }
 
+        @NotNull
         @Override
-        boolean ignores(@NotNull InstructionBlock.Position position, int request, Predicate<Integer> postBlockIgnores) {
-            return position.ignores(request, postBlockIgnores);
+        public AddVector offset(int offset) {
+            return new AddVector(start + offset, amounts);
         }
+    }
+
+    /**
+     * A straight-line run of pure instructions lowered to SSA form: each value is computed once from a tape load, a
+     * constant or earlier values, every cell the run needs is loaded once and every cell it changes is stored once,
+     * at the end.
+     * <p>
+     * Values are numbered in order; {@code op}, {@code a}, {@code b} and {@code imm} give the operation and operands
+     * of each. A load has the offset of its cell in {@code a}. Built by {@link #lower} after optimization, which
+     * replaces loads of cells with a known value by constants and folds operations on constants.
+     */
+    static final class BasicBlock extends PureInstruction {
+        static final int LOAD = 0;
+        static final int CONST = 1;
+        /**
+         * {@code v[a] + imm}
+         */
+        static final int ADD = 2;
+        /**
+         * {@code v[a] * imm}
+         */
+        static final int MUL = 3;
+        /**
+         * {@code v[a] + v[b] * imm}
+         */
+        static final int MULADD = 4;
 
         @NotNull
-        @Override
-        public String toString() {
-            return (amount >= 0 ? "add" : "sub") + " " + Math.abs(amount) + (offset != 0 ? ", " + (offset > 0 ? ">"
-                    : "<") + Math.abs(offset) : "");
+        final int[] op;
+        @NotNull
+        final int[] a;
+        @NotNull
+        final int[] b;
+        @NotNull
+        final byte[] imm;
+        /**
+         * Cells written at the end of the block and the values written to them.
+         */
+        @NotNull
+        final int[] stores;
+        @NotNull
+        final int[] storeValues;
+        /**
+         * Lowest and highest cell accessed.
+         */
+        private final int min;
+        private final int max;
+
+        BasicBlock(@NotNull int[] op, @NotNull int[] a, @NotNull int[] b, @NotNull byte[] imm, @NotNull int[] stores,
+                @NotNull int[] storeValues) {
+            this.op = op;
+            this.a = a;
+            this.b = b;
+            this.imm = imm;
+            this.stores = stores;
+            this.storeValues = storeValues;
+            Footprint footprint = new Footprint();
+            footprint(footprint);
+            min = footprint.min();
+            max = footprint.max();
+        }
+
+        /**
+         * Lowers the runs of pure instructions of a block and its nested blocks that need fewer tape accesses as a
+         * basic block.
+         *
+         * @param preBlockGuarantees what is known about the tape before the block
+         * @return whether anything was lowered
+         */
+        static boolean lower(@NotNull InstructionBlock block, @NotNull Function<Integer, Guarantee> preBlockGuarantees) {
+            boolean lowered = false;
+            InstructionBlock.Position position = block.first;
+            while (position != null) {
+                InstructionBlock.Position current = position;
+                if (cold(position.instruction)) {
+                    position = position.next;
+                    continue;
+                }
+                if (position.instruction instanceof Control) {
+                    // offset() shares nested blocks between copies, which may see other guarantees
+                    position.instruction = position.instruction.copy();
+                }
+                if (position.instruction instanceof WhileLoop) {
+                    int offset = ((WhileLoop) position.instruction).offset;
+                    lowered |= lower(((WhileLoop) position.instruction).block,
+                            i -> current.guarantees(i + offset, preBlockGuarantees));
+                    position = position.next;
+                } else if (position.instruction instanceof Repeat) {
+                    int offset = ((Repeat) position.instruction).offset;
+                    lowered |= lower(((Repeat) position.instruction).block,
+                            i -> current.guarantees(i + offset, preBlockGuarantees));
+                    position = position.next;
+                } else if (position.instruction instanceof If) {
+                    lowered |= lower(((If) position.instruction).block,
+                            i -> current.guarantees(i, preBlockGuarantees));
+                    position = position.next;
+                } else if (lowers(position.instruction)) {
+                    InstructionBlock.Position end = position;
+                    while (end.next != null && lowers(end.next.instruction)) {
+                        end = end.next;
+                    }
+                    InstructionBlock.Position next = end.next;
+                    lowered |= lower(position, end, preBlockGuarantees);
+                    position = next;
+                } else {
+                    position = position.next;
+                }
+            }
+            return lowered;
         }
 
-        @Override
-        public boolean optimize(@NotNull InstructionBlock.Position position,
-                @NotNull Function<Integer, Guarantee> preBlockGuarantees,
-                Predicate<Integer> postBlockIgnores) {
-            Guarantee prevValue = position.guarantees(offset, preBlockGuarantees);
-            if (prevValue.isConstant()) {
-                SetValue newSet = new SetValue((byte) (prevValue.getValue() + amount), offset);
-                InstructionBlock.Position newPos = new InstructionBlock.Position(newSet, position.block);
-                position.replaceAfter(newPos);
-                position.replaceBefore(newPos);
-                return true;
-            } else if (position.next != null)
-                if (position.next.instruction instanceof Add)
-                    if (((Add) position.next.instruction).offset == offset) {
-                        Instruction opt = new Add((byte) (amount + ((Add) position.next.instruction).amount), offset);
-                        InstructionBlock.Position newPos = new InstructionBlock.Position(opt, position.block);
-                        position.next.replaceAfter(newPos);
-                        position.replaceBefore(newPos);
-                        return true;
-                    } else return false;
-                else return false;
-            else return false;
+        private static boolean lowers(@NotNull Instruction inst) {
+            return inst instanceof SetValue || inst instanceof Add || inst instanceof Copy || inst instanceof Write
+                    || inst instanceof Fill || inst instanceof Distribute;
         }
 
-        @NotNull
-        @Override
-        public Add offset(int offset) {
-            return new Add(amount, this.offset + offset);
+        private static boolean lower(@NotNull InstructionBlock.Position first, @NotNull InstructionBlock.Position end,
+                @NotNull Function<Integer, Guarantee> preBlockGuarantees) {
+            if (first == end) {
+                return false;
+            }
+            Builder builder = new Builder(cell -> first.guarantees(cell, preBlockGuarantees));
+            int accesses = 0;
+            for (InstructionBlock.Position pos = first; pos != end.next; pos = pos.next) {
+                builder.add(pos.instruction);
+                Footprint footprint = new Footprint();
+                pos.instruction.footprint(footprint);
+                accesses += footprint.reads.size() + footprint.writes.size();
+            }
+            BasicBlock lowered = builder.build();
+            int loads = 0;
+            for (int o : lowered.op) {
+                loads += o == LOAD ? 1 : 0;
+            }
+            if (loads + lowered.stores.length >= accesses) {
+                return false;
+            }
+            first.replace(end, Collections.singletonList(lowered));
+            return true;
+        }
+
+        /**
+         * Builds the values of a run instruction by instruction, tracking the value each cell holds.
+         */
+        private static final class Builder {
+            private final Function<Integer, Guarantee> entry;
+            private final Map<Integer, Integer> cells = new TreeMap<>();
+            private final Set<Integer> written = new HashSet<>();
+            private final List<int[]> values = new ArrayList<>();
+
+            Builder(@NotNull Function<Integer, Guarantee> entry) {
+                this.entry = entry;
+            }
+
+            private int value(int op, int a, int b, byte imm) {
+                values.add(new int[]{op, a, b, imm});
+                return values.size() - 1;
+            }
+
+            private boolean constant(int v) {
+                return values.get(v)[0] == CONST;
+            }
+
+            private byte constantValue(int v) {
+                return (byte) values.get(v)[3];
+            }
+
+            private int constant(byte value) {
+                return value(CONST, 0, 0, value);
+            }
+
+            private int get(int cell) {
+                Integer v = cells.get(cell);
+                if (v == null) {
+                    Guarantee guarantee = entry.apply(cell);
+                    v = guarantee.isConstant() ? constant(guarantee.getValue()) : value(LOAD, cell, 0, (byte) 0);
+                    cells.put(cell, v);
+                }
+                return v;
+            }
+
+            private void set(int cell, int v) {
+                cells.put(cell, v);
+                written.add(cell);
+            }
+
+            private int add(int v, byte amount) {
+                if (amount == 0) {
+                    return v;
+                } else if (constant(v)) {
+                    return constant((byte) (constantValue(v) + amount));
+                } else if (values.get(v)[0] == ADD) {
+                    return add(values.get(v)[1], (byte) (values.get(v)[3] + amount));
+                }
+                return value(ADD, v, 0, amount);
+            }
+
+            private int mul(int v, byte multiplier) {
+                if (multiplier == 1) {
+                    return v;
+                } else if (multiplier == 0) {
+                    return constant((byte) 0);
+                } else if (constant(v)) {
+                    return constant((byte) (constantValue(v) * multiplier));
+                }
+                return value(MUL, v, 0, multiplier);
+            }
+
+            private int mulAdd(int v, int w, byte multiplier) {
+                if (constant(w)) {
+                    return add(v, (byte) (constantValue(w) * multiplier));
+                } else if (constant(v) && constantValue(v) == 0) {
+                    return mul(w, multiplier);
+                } else if (multiplier == 0) {
+                    return v;
+                }
+                return value(MULADD, v, w, multiplier);
+            }
+
+            void add(@NotNull Instruction inst) {
+                if (inst instanceof SetValue) {
+                    set(((SetValue) inst).offset, constant(((SetValue) inst).value));
+                } else if (inst instanceof Add) {
+                    Add add = (Add) inst;
+                    set(add.offset, add(get(add.offset), add.amount));
+                } else if (inst instanceof Copy) {
+                    Copy copy = (Copy) inst;
+                    set(copy.to, mulAdd(get(copy.to), get(copy.from), copy.multiplier));
+                } else if (inst instanceof Write) {
+                    Write write = (Write) inst;
+                    set(write.to, mul(get(write.from), write.multiplier));
+                } else if (inst instanceof Fill) {
+                    Fill fill = (Fill) inst;
+                    for (int cell : fill.cells()) {
+                        set(cell, constant(fill.value));
+                    }
+                } else if (inst instanceof Distribute) {
+                    Distribute distribute = (Distribute) inst;
+                    int from = get(distribute.from);
+                    for (int i = 0; i < distribute.targets.length; i++) {
+                        int target = distribute.targets[i];
+                        set(target, distribute.overwrite[i] ? mul(from, distribute.multipliers[i])
+                                : mulAdd(get(target), from, distribute.multipliers[i]));
+                    }
+                    set(distribute.from, constant((byte) 0));
+                } else {
+                    throw new IllegalArgumentException(inst.toString());
+                }
+            }
+
+            /**
+             * Drops the values no store needs and numbers the rest in order.
+             */
+            @NotNull
+            BasicBlock build() {
+                List<Integer> stored = new ArrayList<>();
+                for (int cell : cells.keySet()) {
+                    int v = cells.get(cell);
+                    int[] value = values.get(v);
+                    if (written.contains(cell) && !(value[0] == LOAD && value[1] == cell)) {
+                        stored.add(cell);
+                    }
+                }
+                boolean[] live = new boolean[values.size()];
+                for (int cell : stored) {
+                    live[cells.get(cell)] = true;
+                }
+                for (int v = values.size() - 1; v >= 0; v--) {
+                    if (live[v]) {
+                        int op = values.get(v)[0];
+                        if (op == ADD || op == MUL || op == MULADD) {
+                            live[values.get(v)[1]] = true;
+                        }
+                        if (op == MULADD) {
+                            live[values.get(v)[2]] = true;
+                        }
+                    }
+                }
+                int[] number = new int[values.size()];
+                List<int[]> kept = new ArrayList<>();
+                for (int v = 0; v < values.size(); v++) {
+                    if (live[v]) {
+                        int[] value = values.get(v).clone();
+                        if (value[0] != LOAD && value[0] != CONST) {
+                            value[1] = number[value[1]];
+                            value[2] = number[value[2]];
+                        }
+                        number[v] = kept.size();
+                        kept.add(value);
+                    }
+                }
+                int[] op = new int[kept.size()];
+                int[] a = new int[kept.size()];
+                int[] b = new int[kept.size()];
+                byte[] imm = new byte[kept.size()];
+                for (int v = 0; v < kept.size(); v++) {
+                    op[v] = kept.get(v)[0];
+                    a[v] = kept.get(v)[1];
+                    b[v] = kept.get(v)[2];
+                    imm[v] = (byte) kept.get(v)[3];
+                }
+                int[] stores = new int[stored.size()];
+                int[] storeValues = new int[stored.size()];
+                for (int i = 0; i < stored.size(); i++) {
+                    stores[i] = stored.get(i);
+                    storeValues[i] = number[cells.get(stored.get(i))];
+                }
+                return new BasicBlock(op, a, b, imm, stores, storeValues);
+            }
+        }
+
+        /**
+         * Computes every value but the loads, which are already in {@code v}.
+         */
+        private void compute(@NotNull byte[] v) {
+            for (int i = 0; i < op.length; i++) {
+                switch (op[i]) {
+                    case CONST:
+                        v[i] = imm[i];
+                        break;
+                    case ADD:
+                        v[i] = (byte) (v[a[i]] + imm[i]);
+                        break;
+                    case MUL:
+                        v[i] = (byte) (v[a[i]] * imm[i]);
+                        break;
+                    case MULADD:
+                        v[i] = (byte) (v[a[i]] + v[b[i]] * imm[i]);
+                        break;
+                }
+            }
         }
 
         @Override
         public String execute(@NotNull State state) {
-            state.tape[state.pointer + offset] += amount;
+            int from = state.pointer + min;
+            byte[] cells = state.tape.heap() ? state.tape.array(from, state.pointer + max) : null;
+            if (cells != null) {
+                executeUnchecked(cells, state.pointer - state.tape.base(from), state);
+                return "";
+            }
+            byte[] v = state.scratch(op.length);
+            for (int i = 0; i < op.length; i++) {
+                if (op[i] == LOAD) {
+                    v[i] = state.tape.get(state.pointer + a[i]);
+                }
+            }
+            compute(v);
+            for (int i = 0; i < stores.length; i++) {
+                state.tape.set(state.pointer + stores[i], v[storeValues[i]]);
+            }
             return "";
         }
 
-    }
+        @Override
+        void executeUnchecked(@NotNull byte[] tape, int pointer) {
+            executeUnchecked(tape, pointer, new byte[op.length]);
+        }
 
-    private static final class Null extends StableInstruction {
         @Override
-        public String execute(State state) {
+        void executeUnchecked(@NotNull byte[] tape, int pointer, @NotNull State state) {
+            executeUnchecked(tape, pointer, state.scratch(op.length));
+        }
 
-            return "";
+        private void executeUnchecked(@NotNull byte[] tape, int pointer, @NotNull byte[] v) {
+            for (int i = 0; i < op.length; i++) {
+                if (op[i] == LOAD) {
+                    v[i] = Unchecked.get(tape, pointer + a[i]);
+                }
+            }
+            compute(v);
+            for (int i = 0; i < stores.length; i++) {
+                Unchecked.put(tape, pointer + stores[i], v[storeValues[i]]);
+            }
+        }
+
+        @NotNull
+        private String expression(int v) {
+            switch (op[v]) {
+                case LOAD:
+                    return "[" + a[v] + "]";
+                case CONST:
+                    return String.valueOf(imm[v]);
+                case ADD:
+                    return "v" + a[v] + " + " + imm[v];
+                case MUL:
+                    return "v" + a[v] + " * " + imm[v];
+                default:
+                    return "v" + a[v] + " + v" + b[v] + " * " + imm[v];
+            }
         }
 
         @Override
-        boolean ignores(@NotNull InstructionBlock.Position position, int request, Predicate<Integer> postBlockIgnores) {
-            return position.ignores(request, postBlockIgnores);
+        void emit(@NotNull Transpiler.Source t) {
+            t.line("{");
+            for (int v = 0; v < op.length; v++) {
+                String value = op[v] == LOAD ? Transpiler.Source.cell(a[v])
+                        : op[v] == CONST ? String.valueOf(imm[v]) : "(byte) (" + expression(v) + ")";
+                t.line("    byte v" + v + " = " + value + ";");
+            }
+            for (int i = 0; i < stores.length; i++) {
+                t.line("    " + Transpiler.Source.cell(stores[i]) + " = v" + storeValues[i] + ";");
+            }
+            t.line("}");
         }
 
         @Override
-        public boolean optimize(@NotNull InstructionBlock.Position position,
-                Function<Integer, Guarantee> preBlockGuarantees,
-                Predicate<Integer> postBlockIgnores) {
-            position.replaceBefore(position.next);
-            return true;
+        void footprint(@NotNull Footprint footprint) {
+            for (int v = 0; v < op.length; v++) {
+                if (op[v] == LOAD) {
+                    footprint.read(a[v]);
+                }
+            }
+            for (int cell : stores) {
+                footprint.write(cell);
+            }
+        }
+
+        private boolean loads(int cell) {
+            for (int v = 0; v < op.length; v++) {
+                if (op[v] == LOAD && a[v] == cell) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private int store(int cell) {
+            for (int i = 0; i < stores.length; i++) {
+                if (stores[i] == cell) {
+                    return i;
+                }
+            }
+            return -1;
         }
 
-        @NotNull
         @Override
-        public Null offset(int offset) {
-            return this;
+        boolean optimize(@NotNull InstructionBlock.Position position,
+                @NotNull Function<Integer, Guarantee> preBlockGuarantees, Predicate<Integer> postBlockIgnores) {
+            return false;
         }
 
         @Override
         Guarantee guarantees(@NotNull InstructionBlock.Position position, int request,
                 @NotNull Function<Integer, Guarantee> preBlockGuarantees) {
-            return position.guarantees(request, preBlockGuarantees);
+            int store = store(request);
+            if (store < 0) {
+                return position.guarantees(request, preBlockGuarantees);
+            }
+            Guarantee[] g = new Guarantee[storeValues[store] + 1];
+            for (int v = 0; v < g.length; v++) {
+                switch (op[v]) {
+                    case LOAD:
+                        g[v] = position.guarantees(a[v], preBlockGuarantees);
+                        break;
+                    case CONST:
+                        g[v] = Guarantee.constant(imm[v]);
+                        break;
+                    case ADD:
+                        g[v] = g[a[v]].plus(Guarantee.constant(imm[v]));
+                        break;
+                    case MUL:
+                        g[v] = g[a[v]].times(imm[v]);
+                        break;
+                    default:
+                        g[v] = g[a[v]].plus(g[b[v]].times(imm[v]));
+                }
+            }
+            return g[storeValues[store]];
+        }
+
+        @Override
+        boolean ignores(@NotNull InstructionBlock.Position position, int request, Predicate<Integer> postBlockIgnores) {
+            if (loads(request)) {
+                return false;
+            }
+            return store(request) >= 0 || position.ignores(request, postBlockIgnores);
         }
 
+        @NotNull
         @Override
         public String toString() {
-            return "NULL";
+            StringBuilder s = new StringBuilder("block {\n");
+            for (int v = 0; v < op.length; v++) {
+                s.append("  v").append(v).append(" = ").append(expression(v)).append('\n');
+            }
+            for (int i = 0; i < stores.length; i++) {
+                s.append("  [").append(stores[i]).append("] = v").append(storeValues[i]).append('\n');
+            }
+            return s.append("}").toString();
+        }
+
+        @NotNull
+        @Override
+        public BasicBlock offset(int offset) {
+            int[] a = this.a.clone();
+            for (int v = 0; v < op.length; v++) {
+                if (op[v] == LOAD) {
+                    a[v] += offset;
+                }
+            }
+            int[] stores = this.stores.clone();
+            for (int i = 0; i < stores.length; i++) {
+                stores[i] += offset;
+            }
+            return new BasicBlock(op, a, b, imm, stores, storeValues);
         }
     }
 
-    static abstract class Control extends Instruction {
-        final InstructionBlock block;
+    static final class Shift extends ConstantInstruction {
+        final int amount;
 
-        Control(InstructionBlock block) {
-            this.block = block;
+        Shift(int amount) {
+            this.amount = amount;
         }
-    }
 
-    private static class If extends Control {
+        @Override
+        public String toString() {
+            return String.format("shift %d", amount);
+        }
 
-        private final int offset;
+        @Override
+        boolean ignores(@NotNull InstructionBlock.Position position, int request, Predicate<Integer> postBlockIgnores) {
+            return position.ignores(request - amount, postBlockIgnores);
+        }
 
-        If(int offset) {
-            this(offset, new InstructionBlock(b -> preBlockGuarantees -> preBlockGuarantees, postBlockIgnores -> postBlockIgnores));
+        @Override
+        public boolean optimize(@NotNull InstructionBlock.Position position,
+                Function<Integer, Guarantee> preBlockGuarantees,
+                Predicate<Integer> postBlockIgnores) {
+            if (amount == 0) {
+                position.replaceBefore(position.next);
+                return true;
+            } else if (position.next != null) {
+                InstructionBlock.Position instPos = position;
+                while (instPos.next != null && !(instPos.next.instruction instanceof Shift)) {
+                    instPos = instPos.next;
+                    instPos.offset(amount);
+                }
+                if (instPos.next != null) {
+                    InstructionBlock.Position opt = new InstructionBlock.Position(new Shift(
+                            this.amount + ((Shift) instPos.next.instruction).amount), position.block);
+                    instPos.next.replaceAfter(opt);
+                    instPos.next.replaceBefore(opt);
+                } else {
+                    InstructionBlock.Position opt = new InstructionBlock.Position(new Shift(this.amount), position.block);
+                    opt.previous = instPos;
+                    instPos.next = opt;
+                    position.block.last = opt;
+                }
+                position.replaceBefore(position.next);
+                return true;
+            } else return false;
         }
 
-        If(int offset, InstructionBlock instructions) {
-            super(instructions);
-            this.offset = offset;
+        @Override
+        Guarantee guarantees(@NotNull InstructionBlock.Position position, int request,
+                @NotNull Function<Integer, Guarantee> preBlockGuarantees) {
+            return position.guarantees(request + amount, preBlockGuarantees);
         }
 
         @NotNull
         @Override
-        public String toString() {
-            return "if " + offset + " {\n" + block.toString().replaceAll("(^|\\n)(?=.)", "$1  ") + "}";
+        public Shift offset(int offset) {
+            return this;
         }
 
         @Override
-        boolean ignores(@NotNull InstructionBlock.Position position, int request, Predicate<Integer> postBlockIgnores) {
-            return request != offset && block.ignores(request, i -> position.ignores(i, postBlockIgnores))
-                    && position.ignores(request, postBlockIgnores);
+        public String execute(@NotNull State state) {
+            state.pointer += amount;
+            return "";
         }
 
-        @NotNull
         @Override
-        public If offset(int offset) {
-            InstructionBlock newBlock = block.clone();
-            newBlock.offset(offset);
-            return new If(this.offset + offset, newBlock);
+        void emit(@NotNull Transpiler.Source t) {
+            t.line("p += " + amount + ";");
         }
 
         @Override
-        public boolean optimize(@NotNull InstructionBlock.Position position,
-                @NotNull Function<Integer, Guarantee> preBlockGuarantees,
-                Predicate<Integer> postBlockIgnores) {
-            boolean optimized = false;
+        void footprint(@NotNull Footprint footprint) {
+            footprint.pointer += amount;
+        }
+    }
 
-            if (block.optimize())
-                optimized = true;
+    private static final class Copy extends PureInstruction {
+        private final int from;
+        private final int to;
+        private final byte multiplier;
 
-            if (block.isEmpty()) {
-                position.replaceBefore(position.next);
-                return true;
-            }
+        Copy(int from, int to, int multiplier) {
+            this(from, to, (byte) multiplier);
+        }
 
-            Guarantee g = position.guarantees(offset, preBlockGuarantees);
-            if (g.equalsValue(0)) {
-                position.replaceBefore(position.next);
-                optimized = true;
-            } else if (g.inequalsValue(0)) {
-                InstructionBlock.Position pos = new InstructionBlock.Position(new Null(), position.block);
-                InstructionBlock.Position first = pos;
-                for (Instruction in : block) {
-                    pos.next = new InstructionBlock.Position(in, position.block);
-                    pos.next.previous = pos;
-                    pos = pos.next;
+        Copy(int from, int to) {
+            this(from, to, 1);
+        }
+
+
+        @Override
+        boolean ignores(@NotNull InstructionBlock.Position position, int request, Predicate<Integer> postBlockIgnores) {
+            if (request == from) {
+                if (multiplier != 0) {
+                    return false;
                 }
-                position.replaceBefore(first);
-                position.replaceAfter(pos);
+            }
+            return position.ignores(request, postBlockIgnores);
+        }
+
+        @Override
+        Guarantee guarantees(@NotNull InstructionBlock.Position position, int request,
+                @NotNull Function<Integer, Guarantee> preBlockGuarantees) {
+            if (request == to) {
+                return position.guarantees(to, preBlockGuarantees).plus(position.guarantees(from, preBlockGuarantees).times(multiplier));
+            } else
+                return position.guarantees(request, preBlockGuarantees);
+        }
+
+        @Override
+        boolean optimize(@NotNull InstructionBlock.Position position, @NotNull Function<Integer, Guarantee> preBlockGuarantees,
+                Predicate<Integer> postBlockIgnores) {
+            if (position.next != null) {
+                Instruction next = position.next.instruction;
+                if (next instanceof Write && multiplier == 1 && ((Write) next).multiplier == 1
+                        && ((Write) next).to == from && ((Write) next).from == to
+                        && position.next.ignores(to, postBlockIgnores)) {
+                    Instruction newCopy = new Copy(to, from);
+                    InstructionBlock.Position copyPos = new InstructionBlock.Position(newCopy, position.block);
+                    position.replaceBefore(copyPos);
+                    position.next.replaceAfter(copyPos);
+                    return true;
+                }
+            }
+            Guarantee fromGuarantee = position.guarantees(from, preBlockGuarantees);
+            if (fromGuarantee.isConstant()) {
+                Add add = new Add((byte) (fromGuarantee.getValue() * multiplier), to);
+                InstructionBlock.Position addPos = new InstructionBlock.Position(add, position.block);
+                position.replace(addPos);
+                return true;
+            }
+            Guarantee toGuarantee = position.guarantees(to, preBlockGuarantees);
+            if (toGuarantee.equalsValue(0)) {
+                Write write = new Write(from, to, multiplier);
+                InstructionBlock.Position writePos = new InstructionBlock.Position(write, position.block);
+                position.replace(writePos);
+                return true;
+            }
+            if (fromGuarantee.equals(toGuarantee)) {
+                InstructionBlock.Position newPos = new InstructionBlock.Position(new Write(from, to,
+                        multiplier + 1), position.block);
+                position.replace(newPos);
+                return true;
+            }
+            return false;
+        }
+
+        Copy(int from, int to, byte multiplier) {
+            this.from = from;
+            this.to = to;
+            this.multiplier = multiplier;
+        }
+
+        @Override
+        public String execute(@NotNull State state) {
+            byte value = state.tape.get(state.pointer + from);
+            if (value != 0)
+                state.tape.set(state.pointer + to, (byte) (state.tape.get(state.pointer + to) + value * multiplier));
+            return "";
+        }
+
+        @Override
+        void executeUnchecked(@NotNull byte[] tape, int pointer) {
+            byte value = Unchecked.get(tape, pointer + from);
+            if (value != 0)
+                Unchecked.put(tape, pointer + to, (byte) (Unchecked.get(tape, pointer + to) + value * multiplier));
+        }
+
+        @Override
+        void emit(@NotNull Transpiler.Source t) {
+            t.line("{");
+            t.line("    byte v = " + Transpiler.Source.cell(from) + ";");
+            t.line("    " + Transpiler.Source.cell(to) + " += " + (multiplier == 1 ? "v;" : "v * " + multiplier + ";"));
+            t.line("}");
+        }
+
+        @Override
+        void footprint(@NotNull Footprint footprint) {
+            footprint.read(from);
+            footprint.read(to);
+            footprint.write(to);
+        }
+
+        @NotNull
+        @Override
+        public String toString() {
+            return "copy " + from + (multiplier == 1 ? "" : "*" + multiplier) + ", " + to;
+        }
+
+        @NotNull
+        @Override
+        public Copy offset(int offset) {
+            return new Copy(from + offset, to + offset, multiplier);
+        }
+    }
+
+    /**
+     * Adds the source cell times a multiplier to each target and clears the source, the effect of a copy loop. Targets
+     * known to be zero beforehand are overwritten instead, so whatever they held before is ignored.
+     */
+    static final class Distribute extends PureInstruction {
+        private final int from;
+        @NotNull
+        private final int[] targets;
+        @NotNull
+        private final byte[] multipliers;
+        @NotNull
+        private final boolean[] overwrite;
+
+        Distribute(int from, @NotNull int[] targets, @NotNull byte[] multipliers, @NotNull boolean[] overwrite) {
+            this.from = from;
+            this.targets = targets;
+            this.multipliers = multipliers;
+            this.overwrite = overwrite;
+        }
+
+        /**
+         * @param targets multiplier of each target offset
+         */
+        @NotNull
+        static Instruction of(int from, @NotNull Map<Integer, Integer> targets) {
+            if (targets.isEmpty()) {
+                return new SetValue((byte) 0, from);
+            }
+            int[] offsets = new int[targets.size()];
+            byte[] multipliers = new byte[targets.size()];
+            int i = 0;
+            for (Map.Entry<Integer, Integer> target : targets.entrySet()) {
+                offsets[i] = target.getKey();
+                multipliers[i] = (byte) (int) target.getValue();
+                i++;
+            }
+            return new Distribute(from, offsets, multipliers, new boolean[offsets.length]);
+        }
+
+        private int target(int cell) {
+            for (int i = 0; i < targets.length; i++) {
+                if (targets[i] == cell) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @NotNull
+        private Distribute without(int index) {
+            int[] targets = new int[this.targets.length - 1];
+            byte[] multipliers = new byte[targets.length];
+            boolean[] overwrite = new boolean[targets.length];
+            for (int i = 0, j = 0; i < this.targets.length; i++) {
+                if (i != index) {
+                    targets[j] = this.targets[i];
+                    multipliers[j] = this.multipliers[i];
+                    overwrite[j] = this.overwrite[i];
+                    j++;
+                }
+            }
+            return new Distribute(from, targets, multipliers, overwrite);
+        }
+
+        @Override
+        boolean optimize(@NotNull InstructionBlock.Position position,
+                @NotNull Function<Integer, Guarantee> preBlockGuarantees, Predicate<Integer> postBlockIgnores) {
+            Guarantee source = position.guarantees(from, preBlockGuarantees);
+            if (source.isConstant()) {
+                List<Instruction> replacement = new ArrayList<>();
+                for (int i = 0; i < targets.length; i++) {
+                    byte value = (byte) (source.getValue() * multipliers[i]);
+                    if (overwrite[i]) {
+                        replacement.add(new SetValue(value, targets[i]));
+                    } else if (value != 0) {
+                        replacement.add(new Add(value, targets[i]));
+                    }
+                }
+                replacement.add(new SetValue((byte) 0, from));
+                position.replace(replacement);
+                return true;
+            }
+            for (int i = 0; i < targets.length; i++) {
+                if (multipliers[i] == 0 || position.ignores(targets[i], postBlockIgnores)) {
+                    position.replace(Collections.singletonList(targets.length == 1 ? new SetValue((byte) 0, from)
+                            : without(i)));
+                    return true;
+                }
+                if (!overwrite[i] && position.guarantees(targets[i], preBlockGuarantees).equalsValue(0)) {
+                    boolean[] overwrite = this.overwrite.clone();
+                    overwrite[i] = true;
+                    position.replace(Collections.singletonList(new Distribute(from, targets, multipliers,
+                            overwrite)));
+                    return true;
+                }
+            }
+            if (position.next != null && position.next.instruction instanceof Distribute) {
+                // moving a cell back from one of its targets, as in [->+>+<<]>>[-<<+>>]: the target no longer
+                // needs the source added, and the source gets the target's old value added instead. A target
+                // that was overwritten had its old value ignored, so the source just keeps its value
+                Distribute next = (Distribute) position.next.instruction;
+                int index = target(next.from);
+                if (index >= 0 && multipliers[index] == 1 && next.targets.length == 1 && next.targets[0] == from
+                        && next.multipliers[0] == 1) {
+                    List<Instruction> replacement = new ArrayList<>();
+                    for (int i = 0; i < targets.length; i++) {
+                        if (i != index) {
+                            replacement.add(overwrite[i] ? new Write(from, targets[i], multipliers[i])
+                                    : new Copy(from, targets[i], multipliers[i]));
+                        }
+                    }
+                    replacement.add(overwrite[index] ? new SetValue((byte) 0, next.from)
+                            : new Distribute(next.from, new int[]{from}, new byte[]{1}, new boolean[1]));
+                    position.replace(position.next, replacement);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        Guarantee guarantees(@NotNull InstructionBlock.Position position, int request,
+                @NotNull Function<Integer, Guarantee> preBlockGuarantees) {
+            if (request == from) {
+                return Guarantee.constant(0);
+            }
+            int index = target(request);
+            if (index < 0) {
+                return position.guarantees(request, preBlockGuarantees);
+            }
+            Guarantee added = position.guarantees(from, preBlockGuarantees).times(multipliers[index]);
+            return overwrite[index] ? added : position.guarantees(request, preBlockGuarantees).plus(added);
+        }
+
+        @Override
+        boolean ignores(@NotNull InstructionBlock.Position position, int request, Predicate<Integer> postBlockIgnores) {
+            if (request == from) {
+                return false;
+            }
+            int index = target(request);
+            return index >= 0 && overwrite[index] || position.ignores(request, postBlockIgnores);
+        }
+
+        @Override
+        public String execute(@NotNull State state) {
+            byte value = state.tape.get(state.pointer + from);
+            for (int i = 0; i < targets.length; i++) {
+                if (overwrite[i]) {
+                    state.tape.set(state.pointer + targets[i], (byte) (value * multipliers[i]));
+                } else if (value != 0) {
+                    state.tape.set(state.pointer + targets[i],
+                            (byte) (state.tape.get(state.pointer + targets[i]) + value * multipliers[i]));
+                }
+            }
+            if (value != 0) {
+                state.tape.set(state.pointer + from, (byte) 0);
+            }
+            return "";
+        }
+
+        @Override
+        void executeUnchecked(@NotNull byte[] tape, int pointer) {
+            byte value = Unchecked.get(tape, pointer + from);
+            for (int i = 0; i < targets.length; i++) {
+                if (overwrite[i]) {
+                    Unchecked.put(tape, pointer + targets[i], (byte) (value * multipliers[i]));
+                } else if (value != 0) {
+                    Unchecked.put(tape, pointer + targets[i],
+                            (byte) (Unchecked.get(tape, pointer + targets[i]) + value * multipliers[i]));
+                }
+            }
+            Unchecked.put(tape, pointer + from, (byte) 0);
+        }
+
+        @Override
+        void emit(@NotNull Transpiler.Source t) {
+            t.line("{");
+            t.line("    byte v = " + Transpiler.Source.cell(from) + ";");
+            for (int i = 0; i < targets.length; i++) {
+                t.line("    " + Transpiler.Source.cell(targets[i]) + (overwrite[i] ? " = (byte) (v * " + multipliers[i] + ");"
+                        : " += v * " + multipliers[i] + ";"));
+            }
+            t.line("    " + Transpiler.Source.cell(from) + " = 0;");
+            t.line("}");
+        }
+
+        @Override
+        void footprint(@NotNull Footprint footprint) {
+            footprint.read(from);
+            footprint.write(from);
+            for (int i = 0; i < targets.length; i++) {
+                if (!overwrite[i]) {
+                    footprint.read(targets[i]);
+                }
+                footprint.write(targets[i]);
+            }
+        }
+
+        @NotNull
+        @Override
+        public String toString() {
+            StringBuilder s = new StringBuilder("distribute " + from + " ->");
+            for (int i = 0; i < targets.length; i++) {
+                s.append(i == 0 ? " " : ", ").append(overwrite[i] ? "=" : "").append(targets[i])
+                        .append(multipliers[i] == 1 ? "" : "*" + multipliers[i]);
+            }
+            return s.toString();
+        }
+
+        @NotNull
+        @Override
+        public Distribute offset(int offset) {
+            int[] targets = this.targets.clone();
+            for (int i = 0; i < targets.length; i++) {
+                targets[i] += offset;
+            }
+            return new Distribute(from + offset, targets, multipliers, overwrite);
+        }
+    }
+
+    private static final class Write extends PureInstruction {
+        private final int from;
+        private final int to;
+        private final byte multiplier;
+
+        Write(int from, int to, byte multiplier) {
+            this.from = from;
+            this.to = to;
+            this.multiplier = multiplier;
+        }
+
+        Write(int from, int to, int multiplier) {
+            this(from, to, (byte) multiplier);
+        }
+
+        @Override
+        Guarantee guarantees(@NotNull InstructionBlock.Position position, int request,
+                @NotNull Function<Integer, Guarantee> preBlockGuarantees) {
+            if (request == to) {
+                return position.guarantees(from, preBlockGuarantees).times(multiplier);
+            } else
+                return position.guarantees(request, preBlockGuarantees);
+        }
+
+        @Override
+        boolean ignores(@NotNull InstructionBlock.Position position, int request, Predicate<Integer> postBlockIgnores) {
+            return request == to || request != from && position.ignores(request, postBlockIgnores);
+        }
+
+        @Override
+        public String execute(@NotNull State state) {
+            state.tape.set(state.pointer + to, (byte) (state.tape.get(state.pointer + from) * multiplier));
+            return "";
+        }
+
+        @Override
+        void executeUnchecked(@NotNull byte[] tape, int pointer) {
+            Unchecked.put(tape, pointer + to, (byte) (Unchecked.get(tape, pointer + from) * multiplier));
+        }
+
+        @Override
+        void emit(@NotNull Transpiler.Source t) {
+            t.line("{");
+            t.line("    byte v = " + Transpiler.Source.cell(from) + ";");
+            t.line("    " + Transpiler.Source.cell(to) + " = "
+                    + (multiplier == 1 ? "v;" : "(byte) (v * " + multiplier + ");"));
+            t.line("}");
+        }
+
+        @Override
+        void footprint(@NotNull Footprint footprint) {
+            footprint.read(from);
+            footprint.write(to);
+        }
+
+        @NotNull
+        @Override
+        public String toString() {
+            return "write " + from + (multiplier == 1 ? "" : "*" + multiplier) + ", " + to;
+        }
+
+        @NotNull
+        @Override
+        public Write offset(int offset) {
+            return new Write(from + offset, to + offset, multiplier);
+        }
+
+        @Override
+        boolean optimize(@NotNull InstructionBlock.Position position, @NotNull Function<Integer, Guarantee> preBlockGuarantees,
+                Predicate<Integer> postBlockIgnores) {
+            if (multiplier == 0) {
+                InstructionBlock.Position newPos = new InstructionBlock.Position(new SetValue((byte) 0, to), position.block);
+                position.replace(newPos);
+                return true;
+            }
+            Guarantee tog = position.guarantees(to, preBlockGuarantees);
+            Guarantee fromg = position.guarantees(from, preBlockGuarantees);
+            if (tog.equals(fromg) && multiplier == 1 || position.ignores(to, postBlockIgnores)) {
+                position.replaceBefore(position.next);
+                return true;
+            } else return false;
+        }
+
+    }
+
+    static final class Add extends PureInstruction {
+        final byte amount;
+        private final int offset;
+
+        Add(byte amount, int offset) {
+            this.amount = amount;
+            this.offset = offset;
+        }
+
+        @Override
+        Guarantee guarantees(@NotNull InstructionBlock.Position position, int request,
+                @NotNull Function<Integer, Guarantee> preBlockGuarantees) {
+            if (request == offset) {
+                return position.guarantees(offset, preBlockGuarantees).plus(Guarantee.constant(amount));
+            } else
+                return position.guarantees(request, preBlockGuarantees);
+        }
+
+        @Override
+        boolean ignores(@NotNull InstructionBlock.Position position, int request, Predicate<Integer> postBlockIgnores) {
+            return position.ignores(request, postBlockIgnores);
+        }
+
+        @NotNull
+        @Override
+        public String toString() {
+            return (amount >= 0 ? "add" : "sub") + " " + Math.abs(amount) + (offset != 0 ? ", " + (offset > 0 ? ">"
+                    : "<") + Math.abs(offset) : "");
+        }
+
+        @Override
+        public boolean optimize(@NotNull InstructionBlock.Position position,
+                @NotNull Function<Integer, Guarantee> preBlockGuarantees,
+                Predicate<Integer> postBlockIgnores) {
+            Guarantee prevValue = position.guarantees(offset, preBlockGuarantees);
+            if (prevValue.isConstant()) {
+                SetValue newSet = new SetValue((byte) (prevValue.getValue() + amount), offset);
+                InstructionBlock.Position newPos = new InstructionBlock.Position(newSet, position.block);
+                position.replaceAfter(newPos);
+                position.replaceBefore(newPos);
+                return true;
+            } else if (position.next != null)
+                if (position.next.instruction instanceof Add)
+                    if (((Add) position.next.instruction).offset == offset) {
+                        Instruction opt = new Add((byte) (amount + ((Add) position.next.instruction).amount), offset);
+                        InstructionBlock.Position newPos = new InstructionBlock.Position(opt, position.block);
+                        position.next.replaceAfter(newPos);
+                        position.replaceBefore(newPos);
+                        return true;
+                    } else return false;
+                else return false;
+            else return false;
+        }
+
+        @NotNull
+        @Override
+        public Add offset(int offset) {
+            return new Add(amount, this.offset + offset);
+        }
+
+        @Override
+        public String execute(@NotNull State state) {
+            state.tape.set(state.pointer + offset, (byte) (state.tape.get(state.pointer + offset) + amount));
+            return "";
+        }
+
+        @Override
+        void executeUnchecked(@NotNull byte[] tape, int pointer) {
+            Unchecked.put(tape, pointer + offset, (byte) (Unchecked.get(tape, pointer + offset) + amount));
+        }
+
+        @Override
+        void emit(@NotNull Transpiler.Source t) {
+            t.line(Transpiler.Source.cell(offset) + " += " + amount + ";");
+        }
+
+        @Override
+        void footprint(@NotNull Footprint footprint) {
+            footprint.read(offset);
+            footprint.write(offset);
+        }
+
+    }
+
+    private static final class Null extends StableInstruction {
+        @Override
+        public String execute(State state) {
+
+            return "";
+        }
+
+        @Override
+        void emit(@NotNull Transpiler.Source t) {
+        }
+
+        @Override
+        void footprint(@NotNull Footprint footprint) {
+        }
+
+        @Override
+        boolean ignores(@NotNull InstructionBlock.Position position, int request, Predicate<Integer> postBlockIgnores) {
+            return position.ignores(request, postBlockIgnores);
+        }
+
+        @Override
+        public boolean optimize(@NotNull InstructionBlock.Position position,
+                Function<Integer, Guarantee> preBlockGuarantees,
+                Predicate<Integer> postBlockIgnores) {
+            position.replaceBefore(position.next);
+            return true;
+        }
+
+        @NotNull
+        @Override
+        public Null offset(int offset) {
+            return this;
+        }
+
+        @Override
+        Guarantee guarantees(@NotNull InstructionBlock.Position position, int request,
+                @NotNull Function<Integer, Guarantee> preBlockGuarantees) {
+            return position.guarantees(request, preBlockGuarantees);
+        }
+
+        @Override
+        public String toString() {
+            return "NULL";
+        }
+    }
+
+    static abstract class Control extends Instruction {
+        final InstructionBlock block;
+
+        Control(InstructionBlock block) {
+            this.block = block;
+        }
+
+        /**
+         * Pointer the block runs at, relative to the pointer of the instruction.
+         */
+        abstract int origin();
+
+        /**
+         * Whether the block runs again after {@code pass} passes, with the pointer at {@link #origin}. A runner that
+         * steps through the block itself, like {@link Brainfork}, follows the control flow with this.
+         */
+        abstract boolean runs(@NotNull State state, int pass);
+    }
+
+    static class If extends Control {
+
+        private final int offset;
+
+        If(int offset) {
+            this(offset, new InstructionBlock(b -> preBlockGuarantees -> preBlockGuarantees, postBlockIgnores -> postBlockIgnores));
+        }
+
+        If(int offset, InstructionBlock instructions) {
+            super(instructions);
+            this.offset = offset;
+        }
+
+        @NotNull
+        @Override
+        public String toString() {
+            return "if " + offset + " {\n" + block.toString().replaceAll("(^|\\n)(?=.)", "$1  ") + "}";
+        }
+
+        @Override
+        boolean ignores(@NotNull InstructionBlock.Position position, int request, Predicate<Integer> postBlockIgnores) {
+            return request != offset && block.ignores(request, i -> position.ignores(i, postBlockIgnores))
+                    && position.ignores(request, postBlockIgnores);
+        }
+
+        @NotNull
+        @Override
+        public If offset(int offset) {
+            InstructionBlock newBlock = block.clone();
+            newBlock.offset(offset);
+            return new If(this.offset + offset, newBlock);
+        }
+
+        @NotNull
+        @Override
+        If copy() {
+            return new If(offset, block.copy());
+        }
+
+        @Override
+        public boolean optimize(@NotNull InstructionBlock.Position position,
+                @NotNull Function<Integer, Guarantee> preBlockGuarantees,
+                Predicate<Integer> postBlockIgnores) {
+            boolean optimized = false;
+
+            if (block.optimize())
+                optimized = true;
+
+            if (block.isEmpty()) {
+                position.replaceBefore(position.next);
+                return true;
+            }
+
+            Guarantee g = position.guarantees(offset, preBlockGuarantees);
+            if (g.equalsValue(0)) {
+                position.replaceBefore(position.next);
+                optimized = true;
+            } else if (g.inequalsValue(0)) {
+                InstructionBlock.Position pos = new InstructionBlock.Position(new Null(), position.block);
+                InstructionBlock.Position first = pos;
+                for (Instruction in : block) {
+                    pos.next = new InstructionBlock.Position(in, position.block);
+                    pos.next.previous = pos;
+                    pos = pos.next;
+                }
+                position.replaceBefore(first);
+                position.replaceAfter(pos);
+                return true;
+            } else if (fuse(position)) {
+                return true;
+            } else {
+                InstructionBlock optimizedBlock = block.optimized(b -> (request) -> position.guarantees(request, preBlockGuarantees), (request1) -> position.ignores(request1, postBlockIgnores));
+                if (optimizedBlock != null) {
+                    If newIf = new If(offset, optimizedBlock);
+                    InstructionBlock.Position pos = new InstructionBlock.Position(newIf, position.block);
+                    position.replaceAfter(pos);
+                    position.replaceBefore(pos);
+                    return true;
+                }
+
+            }
+            return optimized;
+        }
+
+        /**
+         * Merges the next {@code If} on the same cell into this one, when this block leaves the condition and the
+         * pointer alone. Pure instructions between the two move in front of this {@code If} if they commute with its
+         * block and do not write the condition.
+         */
+        private boolean fuse(@NotNull InstructionBlock.Position position) {
+            Footprint body = Footprint.of(block);
+            if (!body.bounded || body.pointer != 0 || body.writes.contains(offset)) {
+                return false;
+            }
+            List<Instruction> replacement = new ArrayList<>();
+            InstructionBlock.Position next = position.next;
+            while (next != null && !(next.instruction instanceof If && ((If) next.instruction).offset == offset)) {
+                if (!(next.instruction instanceof PureInstruction)) {
+                    return false;
+                }
+                Footprint footprint = new Footprint();
+                next.instruction.footprint(footprint);
+                if (footprint.writes.contains(offset)) {
+                    return false;
+                }
+                for (int cell : footprint.writes) {
+                    if (body.touches(cell)) {
+                        return false;
+                    }
+                }
+                for (int cell : footprint.reads) {
+                    if (body.writes.contains(cell)) {
+                        return false;
+                    }
+                }
+                replacement.add(next.instruction);
+                next = next.next;
+            }
+            if (next == null) {
+                return false;
+            }
+            If fused = new If(offset);
+            fused.block.addAll(block);
+            fused.block.addAll(((If) next.instruction).block);
+            replacement.add(fused);
+            position.replace(next, replacement);
+            return true;
+        }
+
+        @NotNull
+        @Override
+        Guarantee guarantees(@NotNull InstructionBlock.Position position, int request,
+                @NotNull Function<Integer, Guarantee> preBlockGuarantees) {
+            return position.guarantees(offset, preBlockGuarantees)
+                    .conditional(block.guarantees(request, i -> position.guarantees(i, preBlockGuarantees)),
+                            position.guarantees(request, preBlockGuarantees));
+        }
+
+        @Override
+        public String execute(@NotNull State state) {
+            if (state.tape.get(state.pointer + offset) != 0) {
+                return block.execute(state);
+            }
+            return "";
+        }
+
+        @Override
+        int origin() {
+            return 0;
+        }
+
+        @Override
+        boolean runs(@NotNull State state, int pass) {
+            return pass == 0 && state.tape.get(state.pointer + offset) != 0;
+        }
+
+        @Override
+        void emit(@NotNull Transpiler.Source t) {
+            t.conditional(offset, block);
+        }
+
+        @Override
+        void footprint(@NotNull Footprint footprint) {
+            footprint.read(offset);
+            int entry = footprint.pointer;
+            for (Instruction inst : block) {
+                inst.footprint(footprint);
+            }
+            if (footprint.pointer != entry) {
+                footprint.bounded = false;
+            }
+        }
+    }
+
+    static class WhileLoop extends Control {
+
+        static boolean testing = false;
+        /**
+         * Largest trip count of a loop with a known counter that is unrolled completely.
+         */
+        static int maxUnroll = 8;
+        final int offset;
+        /**
+         * Set from a {@link Profile} on loops that hardly ran, which the optimizer leaves as parsed.
+         */
+        boolean cold = false;
+
+        /**
+         * Back-edges a loop whose body was never optimized takes before it is optimized on the fly.
+         */
+        static int osrThreshold = 10_000;
+        private boolean bodyOptimized = false;
+        private int backEdges = 0;
+        @Nullable
+        private volatile PureBody pureBody;
+        /**
+         * The loop optimized without context, which execution moves into once it is hot.
+         */
+        @Nullable
+        volatile InstructionBlock osr;
+        /**
+         * Results of earlier runs, see {@link LoopMemo}, taken on the first memoized run.
+         */
+        @Nullable
+        private volatile Memo memo;
+
+
+        WhileLoop(int offset) {
+            this(offset, body());
+        }
+
+        WhileLoop(int offset, InstructionBlock optimizedBlock) {
+            super(optimizedBlock);
+            this.offset = offset;
+        }
+
+        /**
+         * An empty loop body, which starts with the counter not zero and every cell it changes unknown.
+         */
+        @NotNull
+        static InstructionBlock body() {
+            return new InstructionBlock(b -> preBlockGuarantees -> i -> {
+                Guarantee unknown;
+                if (i == 0) {
+                    unknown = new Guarantee.Unknown(b, i) {
+                        @Override
+                        int lower() {
+                            return 1;
+                        }
+                    };
+                } else {
+                    unknown = new Guarantee.Unknown(b, i);
+                }
+                if (!Instruction.WhileLoop.testing) {
+                    Instruction.WhileLoop.testing = true;
+                    Guarantee through = b.guarantees(i, preBlockGuarantees);
+                    Instruction.WhileLoop.testing = false;
+                    if (through.equals(unknown)) {
+                        return preBlockGuarantees.apply(i);
+                    }
+                }
+                return unknown;
+            }, i -> d -> false);
+        }
+
+        /**
+         * Effect of one pass through a balanced loop body on each cell it writes, relative to the loop counter.
+         * Cells missing from every map are never written and keep their value across the loop.
+         */
+        static final class Summary {
+            final Map<Integer, Integer> increments = new HashMap<>();
+            final Map<Integer, Byte> fixed = new HashMap<>();
+            final Set<Integer> clobbered = new HashSet<>();
+            /**
+             * Pointer movement of one pass, which is 0 for a balanced body.
+             */
+            int stride = 0;
+
+            private void add(int cell, int amount) {
+                if (fixed.containsKey(cell)) {
+                    fixed.put(cell, (byte) (fixed.get(cell) + amount));
+                } else if (!clobbered.contains(cell)) {
+                    increments.put(cell, increments.getOrDefault(cell, 0) + amount);
+                }
+            }
+
+            private void set(int cell, byte value) {
+                increments.remove(cell);
+                clobbered.remove(cell);
+                fixed.put(cell, value);
+            }
+
+            private void clobber(int cell) {
+                increments.remove(cell);
+                fixed.remove(cell);
+                clobbered.add(cell);
+            }
+
+            /**
+             * Change of the counter per pass when it is only ever incremented or decremented by one, and the loop
+             * therefore runs a number of times that follows from its value on entry; 0 otherwise.
+             */
+            int counterStep() {
+                int step = step();
+                return step == 1 || step == -1 ? step : 0;
+            }
+
+            /**
+             * Change of the counter per pass when only unconditional adds change it; 0 otherwise.
+             */
+            int step() {
+                if (fixed.containsKey(0) || clobbered.contains(0)) {
+                    return 0;
+                }
+                return (byte) (int) increments.getOrDefault(0, 0);
+            }
+
+            /**
+             * @return the summary of a balanced body, or null when the body moves the pointer or contains
+             * instructions whose writes cannot be located
+             */
+            @Nullable
+            static Summary of(@NotNull InstructionBlock body) {
+                Summary summary = new Summary();
+                return summary.scan(body, 0, false) == 0 ? summary : null;
+            }
+
+            /**
+             * Summarizes a body that moves the pointer by a constant stride, relative to the pointer its pass starts
+             * on. Successive passes then walk an array of records of {@code stride} cells, and the summary is the
+             * effect of one pass on the fields of the record it starts at and its neighbours.
+             *
+             * @return the summary, or null when the body does not move the pointer by a constant or contains
+             * instructions whose writes cannot be located
+             */
+            @Nullable
+            static Summary ofRecord(@NotNull InstructionBlock body) {
+                Summary summary = new Summary();
+                int stride = summary.scan(body, 0, false);
+                if (stride == 0 || stride == Integer.MIN_VALUE) {
+                    return null;
+                }
+                summary.stride = stride;
+                return summary;
+            }
+
+            /**
+             * @return the pointer after the block, or {@link Integer#MIN_VALUE} when a write cannot be located
+             */
+            private int scan(@NotNull InstructionBlock body, int pointer, boolean conditional) {
+                for (Instruction inst : body) {
+                    if (inst instanceof Shift) {
+                        pointer += ((Shift) inst).amount;
+                    } else if (inst instanceof Add && !conditional) {
+                        add(pointer + ((Add) inst).offset, ((Add) inst).amount);
+                    } else if (inst instanceof SetValue && !conditional) {
+                        set(pointer + ((SetValue) inst).offset, ((SetValue) inst).value);
+                    } else if (inst instanceof Add) {
+                        clobber(pointer + ((Add) inst).offset);
+                    } else if (inst instanceof SetValue) {
+                        clobber(pointer + ((SetValue) inst).offset);
+                    } else if (inst instanceof Fill) {
+                        Fill fill = (Fill) inst;
+                        for (int cell : fill.cells()) {
+                            if (conditional) {
+                                clobber(pointer + cell);
+                            } else {
+                                set(pointer + cell, fill.value);
+                            }
+                        }
+                    } else if (inst instanceof BasicBlock) {
+                        BasicBlock basic = (BasicBlock) inst;
+                        for (int i = 0; i < basic.stores.length; i++) {
+                            int v = basic.storeValues[i];
+                            int cell = pointer + basic.stores[i];
+                            if (conditional) {
+                                clobber(cell);
+                            } else if (basic.op[v] == BasicBlock.CONST) {
+                                set(cell, basic.imm[v]);
+                            } else if (basic.op[v] == BasicBlock.ADD && basic.op[basic.a[v]] == BasicBlock.LOAD
+                                    && basic.a[basic.a[v]] == basic.stores[i]) {
+                                add(cell, basic.imm[v]);
+                            } else {
+                                clobber(cell);
+                            }
+                        }
+                    } else if (inst instanceof AddVector) {
+                        AddVector vector = (AddVector) inst;
+                        for (int i = 0; i < vector.amounts.length; i++) {
+                            if (vector.amounts[i] == 0) {
+                                continue;
+                            }
+                            if (conditional) {
+                                clobber(pointer + vector.start + i);
+                            } else {
+                                add(pointer + vector.start + i, vector.amounts[i]);
+                            }
+                        }
+                    } else if (inst instanceof Copy) {
+                        clobber(pointer + ((Copy) inst).to);
+                    } else if (inst instanceof Distribute) {
+                        Distribute distribute = (Distribute) inst;
+                        for (int target : distribute.targets) {
+                            clobber(pointer + target);
+                        }
+                        if (conditional) {
+                            clobber(pointer + distribute.from);
+                        } else {
+                            set(pointer + distribute.from, (byte) 0);
+                        }
+                    } else if (inst instanceof Write) {
+                        clobber(pointer + ((Write) inst).to);
+                    } else if (inst instanceof Read) {
+                        clobber(pointer + ((Read) inst).offset);
+                    } else if (inst instanceof If) {
+                        if (scan(((If) inst).block, pointer, true) != pointer) {
+                            return Integer.MIN_VALUE;
+                        }
+                    } else if (inst instanceof WhileLoop) {
+                        WhileLoop loop = (WhileLoop) inst;
+                        if (scan(loop.block, pointer + loop.offset, true) != pointer + loop.offset) {
+                            return Integer.MIN_VALUE;
+                        }
+                        clobber(pointer + loop.offset);
+                    } else if (inst instanceof Repeat) {
+                        Repeat repeat = (Repeat) inst;
+                        if (scan(repeat.block, pointer + repeat.offset, true) != pointer + repeat.offset) {
+                            return Integer.MIN_VALUE;
+                        }
+                    } else if (!(inst instanceof Out || inst instanceof Print || inst instanceof Null)) {
+                        return Integer.MIN_VALUE;
+                    }
+                }
+                return pointer;
+            }
+        }
+
+        @Nullable
+        private Summary summary;
+        @Nullable
+        private Summary record;
+        private boolean summarized = false;
+
+        /**
+         * Rewrites of a body are valid in every context, so a summary stays true for as long as the loop exists.
+         */
+        @Nullable
+        Summary summary() {
+            if (!summarized) {
+                summary = Summary.of(block);
+                record = summary == null ? Summary.ofRecord(block) : null;
+                summarized = true;
+            }
+            return summary;
+        }
+
+        /**
+         * The summary of a body that moves the pointer by a constant stride, see {@link Summary#ofRecord}.
+         */
+        @Nullable
+        Summary record() {
+            summary();
+            return record;
+        }
+
+        @NotNull
+        @Override
+        Guarantee guarantees(@NotNull InstructionBlock.Position position, int request,
+                @NotNull Function<Integer, Guarantee> preBlockGuarantees) {
+            if (request == offset)
+                return Guarantee.constant(0);
+            Summary summary = summary();
+            if (summary != null) {
+                int cell = request - offset;
+                Guarantee counter = position.guarantees(offset, preBlockGuarantees);
+                if (summary.fixed.containsKey(cell)) {
+                    return counter.conditional(Guarantee.constant(summary.fixed.get(cell)),
+                            position.guarantees(request, preBlockGuarantees));
+                } else if (summary.increments.containsKey(cell)) {
+                    int step = summary.counterStep();
+                    if (step != 0) {
+                        return position.guarantees(request, preBlockGuarantees)
+                                .plus(counter.times(-step * summary.increments.get(cell)));
+                    }
+                } else if (!summary.clobbered.contains(cell)) {
+                    return position.guarantees(request, preBlockGuarantees);
+                }
+            }
+            Summary record = record();
+            if (record != null) {
+                // once the loop ran, the pointer is one stride past the record of the last pass
+                int cell = request - offset + record.stride;
+                Guarantee counter = position.guarantees(offset, preBlockGuarantees);
+                if (record.fixed.containsKey(cell)) {
+                    return counter.conditional(Guarantee.constant(record.fixed.get(cell)),
+                            position.guarantees(request, preBlockGuarantees));
+                } else if (cell == 0 && !record.clobbered.contains(0) && !record.increments.containsKey(0)) {
+                    return counter.conditional(new Guarantee.Unknown(position, request) {
+                        @Override
+                        int lower() {
+                            return 1;
+                        }
+                    }, position.guarantees(request, preBlockGuarantees));
+                }
+            }
+            return position.guarantees(offset, preBlockGuarantees).conditional(block.guarantees(request - offset,
+                    i -> position.guarantees(i + offset, preBlockGuarantees)),
+                    position.guarantees(request, preBlockGuarantees));
+        }
+
+        @Override
+        boolean ignores(@NotNull InstructionBlock.Position position, int request, Predicate<Integer> postBlockIgnores) {
+            return request != offset
+                    && block.ignores(request - offset, i -> position.ignores(i + offset, postBlockIgnores))
+                    && position.ignores(request, i -> position.ignores(i, postBlockIgnores));
+
+        }
+
+        @NotNull
+        @Override
+        public String toString() {
+            return "while " + offset + " {\n" + block.toString().replaceAll("(^|\\n)(?=.)", "$1  ") + "}";
+        }
+
+        @NotNull
+        @Override
+        public WhileLoop offset(int offset) {
+            WhileLoop loop = new WhileLoop(this.offset + offset, block.clone());
+            loop.cold = cold;
+            loop.bodyOptimized = bodyOptimized;
+            return loop;
+        }
+
+        @NotNull
+        @Override
+        WhileLoop copy() {
+            WhileLoop loop = new WhileLoop(offset, block.copy());
+            loop.cold = cold;
+            loop.bodyOptimized = bodyOptimized;
+            return loop;
+        }
+
+        public boolean optimize(@NotNull InstructionBlock.Position position,
+                @NotNull Function<Integer, Guarantee> preBlockGuarantees,
+                Predicate<Integer> postBlockIgnores) {
+            if (cold) {
+                return false;
+            }
+            boolean optimized = LoopTable.optimize(block);
+            bodyOptimized = true;
+            pureBody = null;
+            walk = null;
+
+            boolean copyOptimizable = true;
+            int loopDiff = 0;
+            Set<Integer> touched = new HashSet<>();
+            if (block.first != null) {
+                for (Instruction inst : block) {
+                    if (inst instanceof Add) {
+                        Add add = (Add) inst;
+                        if (add.offset == 0) {
+                            loopDiff += add.amount;
+                        }
+                        if (touched.contains(add.offset)) {
+                            copyOptimizable = false;
+                        }
+                    } else if ((inst instanceof SetValue)) {
+                        SetValue set = (SetValue) inst;
+                        if (set.offset == 0) {
+                            copyOptimizable = false;
+                        }
+                        touched.add(set.offset);
+                    } else {
+                        copyOptimizable = false;
+                    }
+                }
+                if (loopDiff != -1) {
+                    copyOptimizable = false;
+                }
+            } else {
+                copyOptimizable = false;
+            }
+            if (copyOptimizable) {
+                // sets run on every iteration, so they win over adds to the same cell and only need the loop to run
+                List<Instruction> replacement = new ArrayList<>();
+                Map<Integer, Integer> targets = new LinkedHashMap<>();
+                for (Instruction inst : block) {
+                    if (inst instanceof Add && ((Add) inst).offset != 0) {
+                        targets.merge(((Add) inst).offset + offset, (int) ((Add) inst).amount, Integer::sum);
+                    }
+                }
+                for (Instruction inst : block) {
+                    if (inst instanceof SetValue) {
+                        SetValue set = (SetValue) inst;
+                        If ifInstruction = new If(offset);
+                        ifInstruction.block.addAll(Collections.singletonList(new SetValue(set.value,
+                                set.offset + offset)));
+                        replacement.add(ifInstruction);
+                        targets.remove(set.offset + offset);
+                    }
+                }
+                replacement.add(Distribute.of(offset, targets));
+                position.replace(replacement);
+                return true;
+            } else if (position.guarantees(offset, preBlockGuarantees).equalsValue(0)) {
+                position.replaceBefore(position.next);
+                return true;
+            } else if (block.guarantees(0, i -> position.guarantees(i + offset, preBlockGuarantees)).equalsValue(0)
+                    && CostModel.allow("if", 1)) {
+                If ifInst = new If(offset);
+                InstructionBlock.Position ifPos = new InstructionBlock.Position(ifInst, position.block);
+                ifInst.block.addAll(block);
+                ifInst.block.offset(offset);
+                InstructionBlock.Position setPos = new InstructionBlock.Position(new SetValue((byte) 0, offset), position.block);
+                ifPos.next = setPos;
+                setPos.previous = ifPos;
+                position.replaceBefore(ifPos);
+                position.replaceAfter(setPos);
+                return true;
+            } else if (count(position, preBlockGuarantees)) {
+                return true;
+            } else if (hoist(position)) {
                 return true;
             } else {
-                InstructionBlock optimizedBlock = block.optimized(b -> (request) -> position.guarantees(request, preBlockGuarantees), (request1) -> position.ignores(request1, postBlockIgnores));
-                if (optimizedBlock != null) {
-                    If newIf = new If(offset, optimizedBlock);
-                    InstructionBlock.Position pos = new InstructionBlock.Position(newIf, position.block);
-                    position.replaceAfter(pos);
-                    position.replaceBefore(pos);
+                // a loop with an empty body that is entered never ends, and peeling it would only make another
+                if (!block.isEmpty() && position.guarantees(offset, preBlockGuarantees).inequalsValue(0)
+                        && CostModel.allow("peel", Math.max(1, CostModel.size(block)))) {
+                    InstructionBlock.Position pos = new InstructionBlock.Position(new Null(), position.block);
+                    InstructionBlock.Position first = pos;
+                    for (Instruction in : block) {
+                        pos.next = new InstructionBlock.Position(in.offset(offset), position.block);
+                        pos.next.previous = pos;
+                        pos = pos.next;
+                    }
+                    WhileLoop newWhile = new WhileLoop(offset);
+                    newWhile.block.addAll(this.block);
+                    newWhile.bodyOptimized = true;
+                    pos.next = new InstructionBlock.Position(newWhile, position.block);
+                    pos.next.previous = pos;
+                    position.replaceBefore(first);
+                    position.replaceAfter(pos.next);
                     return true;
                 }
-
+                return optimized;
+            }
+        }
+
+        /**
+         * Number of passes a loop makes when its counter starts at {@code counter} and changes by {@code step} on each,
+         * or -1 when it never reaches zero.
+         */
+        static int trips(byte counter, int step) {
+            byte value = counter;
+            for (int trips = 0; trips < 256; trips++) {
+                if (value == 0) {
+                    return trips;
+                }
+                value += step;
+            }
+            return -1;
+        }
+
+        /**
+         * Replaces a loop whose counter is known on entry and changes by a constant on each pass. Up to
+         * {@link #maxUnroll} passes are unrolled. More become a {@link Repeat}, with the adds and sets to cells nothing
+         * else in the body touches folded into a single update after it.
+         */
+        private boolean count(@NotNull InstructionBlock.Position position,
+                @NotNull Function<Integer, Guarantee> preBlockGuarantees) {
+            Guarantee counter = position.guarantees(offset, preBlockGuarantees);
+            Summary summary = summary();
+            if (!counter.isConstant() || summary == null || summary.step() == 0) {
+                return false;
+            }
+            int trips = trips(counter.getValue(), summary.step());
+            if (trips <= 0) {
+                return false;
+            }
+            if (trips <= maxUnroll) {
+                if (!CostModel.allow("unroll", (trips - 1) * CostModel.size(block))) {
+                    return false;
+                }
+                List<Instruction> unrolled = new ArrayList<>();
+                for (int i = 0; i < trips; i++) {
+                    for (Instruction inst : block) {
+                        unrolled.add(inst.offset(offset));
+                    }
+                }
+                position.replace(unrolled);
+                return true;
+            }
+
+            Set<Integer> pinned = new HashSet<>();
+            int pointer = 0;
+            for (Instruction inst : block) {
+                if (inst instanceof Shift) {
+                    pointer += ((Shift) inst).amount;
+                } else if (!(inst instanceof Add || inst instanceof SetValue)) {
+                    Footprint footprint = new Footprint();
+                    footprint.pointer = pointer;
+                    inst.footprint(footprint);
+                    if (!footprint.bounded) {
+                        return false;
+                    }
+                    pinned.addAll(footprint.reads);
+                    pinned.addAll(footprint.writes);
+                }
+            }
+            List<Instruction> rest = new ArrayList<>();
+            pointer = 0;
+            for (Instruction inst : block) {
+                if (inst instanceof Shift) {
+                    pointer += ((Shift) inst).amount;
+                } else if (inst instanceof Add && !pinned.contains(pointer + ((Add) inst).offset)
+                        || inst instanceof SetValue && !pinned.contains(pointer + ((SetValue) inst).offset)) {
+                    continue;
+                }
+                rest.add(inst);
+            }
+            List<Instruction> replacement = new ArrayList<>();
+            if (!rest.isEmpty()) {
+                InstructionBlock body = WhileLoop.body();
+                body.addAll(rest);
+                replacement.add(new Repeat(offset, trips, body));
+            }
+            for (Map.Entry<Integer, Integer> increment : new TreeMap<>(summary.increments).entrySet()) {
+                int cell = increment.getKey();
+                byte amount = (byte) (trips * increment.getValue());
+                if (pinned.contains(cell)) {
+                    continue;
+                } else if (cell == 0) {
+                    replacement.add(new SetValue((byte) 0, offset));
+                } else if (amount != 0) {
+                    replacement.add(new Add(amount, offset + cell));
+                }
+            }
+            for (Map.Entry<Integer, Byte> fixed : new TreeMap<>(summary.fixed).entrySet()) {
+                if (!pinned.contains(fixed.getKey())) {
+                    replacement.add(new SetValue(fixed.getValue(), offset + fixed.getKey()));
+                }
+            }
+            position.replace(replacement);
+            return true;
+        }
+
+        /**
+         * Moves the assignments of a stable body that compute the same value on every pass into an {@link If} on the
+         * counter before the loop, which runs them once when the loop runs at all. An assignment qualifies when the
+         * body writes none of the cells it reads, and nothing else in the body writes its cells or reads them before
+         * it.
+         */
+        private boolean hoist(@NotNull InstructionBlock.Position position) {
+            if (!block.stable()) {
+                return false;
+            }
+            List<Footprint> footprints = new ArrayList<>();
+            Set<Integer> written = new HashSet<>();
+            int pointer = 0;
+            for (Instruction inst : block) {
+                Footprint footprint = new Footprint();
+                footprint.pointer = pointer;
+                inst.footprint(footprint);
+                footprints.add(footprint);
+                written.addAll(footprint.writes);
+                pointer = footprint.pointer;
+            }
+            if (!written.contains(0)) {
+                // the loop never ends once it runs
+                return false;
+            }
+            List<Instruction> hoisted = new ArrayList<>();
+            List<Instruction> rest = new ArrayList<>();
+            Footprint before = new Footprint();
+            int index = 0;
+            for (Instruction inst : block) {
+                Footprint footprint = footprints.get(index++);
+                boolean invariant = (inst instanceof SetValue || inst instanceof Write || inst instanceof Fill)
+                        && !footprint.writes.contains(0);
+                for (int cell : footprint.reads) {
+                    invariant &= !written.contains(cell);
+                }
+                for (int cell : footprint.writes) {
+                    invariant &= !before.touches(cell);
+                    for (int i = index; i < footprints.size(); i++) {
+                        invariant &= !footprints.get(i).writes.contains(cell);
+                    }
+                }
+                if (invariant) {
+                    hoisted.add(inst.offset(offset + footprint.pointer));
+                } else {
+                    rest.add(inst);
+                    before.reads.addAll(footprint.reads);
+                    before.writes.addAll(footprint.writes);
+                }
+            }
+            if (hoisted.isEmpty() || !CostModel.allow("hoist", 1)) {
+                return false;
+            }
+            If preHeader = new If(offset);
+            preHeader.block.addAll(hoisted);
+            WhileLoop loop = new WhileLoop(offset);
+            loop.block.addAll(rest);
+            loop.bodyOptimized = true;
+            position.replace(Arrays.asList(preHeader, loop));
+            return true;
+        }
+
+        /**
+         * Runs the loop, recording it as an {@link Events.Loop} when sampled.
+         */
+        @Override
+        public String execute(@NotNull State state) {
+            state.pointer += offset;
+            Events.Loop event = Events.sampleLoop() ? new Events.Loop() : null;
+            if (event != null) {
+                event.begin();
+            }
+            String out = null;
+            if (LoopMemo.enabled && state.profile == null) {
+                LoopMemo memo = memo();
+                if (memo != null) {
+                    out = memo.execute(state, () -> iterate(state));
+                }
+            }
+            if (out == null) {
+                out = iterate(state);
+            }
+            if (event != null) {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.loop = Events.describe(this);
+                    event.pointer = state.pointer;
+                    event.commit();
+                }
+            }
+            state.pointer -= offset;
+            return out;
+        }
+
+        @Override
+        int origin() {
+            return offset;
+        }
+
+        @Override
+        boolean runs(@NotNull State state, int pass) {
+            return state.tape.get(state.pointer) != 0;
+        }
+
+        /**
+         * @return the memo of the loop, or null when it cannot be memoized
+         */
+        @Nullable
+        LoopMemo memo() {
+            Memo memo = this.memo;
+            if (memo == null) {
+                memo = new Memo(LoopMemo.of(this));
+                this.memo = memo;
+            }
+            return memo.memo;
+        }
+
+        /**
+         * Holds the memo once it is taken, even when the loop cannot be memoized.
+         */
+        private static final class Memo {
+            @Nullable
+            final LoopMemo memo;
+
+            Memo(@Nullable LoopMemo memo) {
+                this.memo = memo;
+            }
+        }
+
+        /**
+         * Runs the loop with the pointer on its counter.
+         */
+        @NotNull
+        private String iterate(@NotNull State state) {
+            InstructionBlock osr = this.osr;
+            if (osr != null) {
+                return osr.execute(state);
+            }
+            String out = "";
+            if (state.profile == null && walk(state)) {
+                return out;
+            }
+            PureBody body = state.profile == null ? pureBody() : null;
+            PureInstruction[] pure = body == null ? null : body.instructions;
+            Footprint footprint = body == null ? null : body.footprint;
+            // only ask for the cells once the loop runs, since a paged tape takes the page for writing
+            byte[] tape = pure == null || !state.tape.heap() || state.tape.get(state.pointer) == 0 ? null
+                    : state.tape.array(state.pointer + footprint.min(), state.pointer + footprint.max());
+            if (tape != null) {
+                int pointer = state.pointer - state.tape.base(state.pointer + footprint.min());
+                while (Unchecked.get(tape, pointer) != 0) {
+                    state.checkCancelled();
+                    for (PureInstruction inst : pure) {
+                        inst.executeUnchecked(tape, pointer, state);
+                    }
+                }
+            } else {
+                while (state.tape.get(state.pointer) != 0) {
+                    state.checkCancelled();
+                    if (state.profile != null) {
+                        state.profile.iteration(this);
+                    } else if (!bodyOptimized && ++backEdges >= osrThreshold) {
+                        out += osr().execute(state);
+                        break;
+                    }
+                    out += block.execute(state);
+                }
+            }
+            return out;
+        }
+
+        /**
+         * Body of a loop with a {@link #record}, taken on its first walk and dropped like {@link #pureBody}.
+         */
+        @Nullable
+        private volatile PureBody walk;
+
+        /**
+         * Runs a loop with a {@link #record} and a pure body as a walk over the records: each pass works on the
+         * window around the pointer through the array that stores it, and a pass whose window is not in one array
+         * runs checked. A scan by one cell without a body compares eight cells at a time.
+         *
+         * @return whether the loop ran
+         */
+        private boolean walk(@NotNull State state) {
+            Summary record = record();
+            if (record == null) {
+                return false;
+            }
+            PureBody body = walk;
+            if (body == null) {
+                body = PureBody.walk(block);
+                walk = body;
+            }
+            PureInstruction[] pure = body.instructions;
+            if (pure == null) {
+                return false;
+            }
+            int stride = record.stride;
+            int min = body.footprint.min();
+            int max = body.footprint.max();
+            Tape tape = state.tape;
+            if (pure.length == 0 && stride == 1) {
+                scan(state);
+            }
+            while (tape.get(state.pointer) != 0) {
+                state.checkCancelled();
+                byte[] cells = pure.length == 0 || !tape.heap() ? null
+                        : tape.array(state.pointer + min, state.pointer + max);
+                if (cells != null) {
+                    int pointer = state.pointer - tape.base(state.pointer + min);
+                    for (PureInstruction inst : pure) {
+                        inst.executeUnchecked(cells, pointer, state);
+                    }
+                } else {
+                    for (PureInstruction inst : pure) {
+                        inst.execute(state);
+                    }
+                }
+                state.pointer += stride;
+            }
+            return true;
+        }
+
+        /**
+         * Moves the pointer right to the first zero cell, as far as the tape is one array. A word has a zero byte
+         * where subtracting one from every byte borrows into a byte whose top bit was clear.
+         */
+        private static void scan(@NotNull State state) {
+            byte[] cells = state.tape.heap() ? state.tape.read(0, state.tape.size() - 1) : null;
+            if (cells == null || state.tape.base(0) != 0 || !Unchecked.UNALIGNED
+                    || ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN) {
+                return;
+            }
+            int pointer = state.pointer;
+            while (pointer >= 0 && pointer + 8 <= cells.length) {
+                long word = Unchecked.getLong(cells, pointer);
+                long zeros = (word - 0x0101010101010101L) & ~word & 0x8080808080808080L;
+                if (zeros != 0) {
+                    pointer += Long.numberOfTrailingZeros(zeros) >>> 3;
+                    break;
+                }
+                pointer += 8;
+            }
+            state.pointer = pointer;
+        }
+
+        /**
+         * Optimizes a copy of the loop at offset 0 without context. The loop condition only depends on the tape, so
+         * the result can take over at any iteration, with the pointer on the counter. The body is copied deeply, since
+         * the optimizer rewrites nested loops in place while other threads may be running them, and the result is
+         * only published once it is done.
+         */
+        @NotNull
+        private InstructionBlock osr() {
+            InstructionBlock osr = this.osr;
+            if (osr == null) {
+                synchronized (Brainfuck.class) {
+                    osr = this.osr;
+                    if (osr == null) {
+                        WhileLoop loop = new WhileLoop(0);
+                        loop.block.addAll(block.copy());
+                        osr = new InstructionBlock(Collections.singletonList(loop));
+                        CostModel.reset(CostModel.size(osr));
+                        while (osr.optimize()) ;
+                        this.osr = osr;
+                    }
+                }
+            }
+            return osr;
+        }
+
+        @NotNull
+        private PureBody pureBody() {
+            PureBody body = pureBody;
+            if (body == null) {
+                body = PureBody.of(block);
+                pureBody = body;
+            }
+            return body;
+        }
+
+        @Override
+        void emit(@NotNull Transpiler.Source t) {
+            t.loop(offset, block);
+        }
+
+        @Override
+        void footprint(@NotNull Footprint footprint) {
+            footprint.read(offset);
+            int entry = footprint.pointer;
+            footprint.pointer += offset;
+            for (Instruction inst : block) {
+                inst.footprint(footprint);
+            }
+            if (footprint.pointer != entry + offset) {
+                footprint.bounded = false;
+            }
+            footprint.pointer = entry;
+        }
+    }
+
+    /**
+     * A loop whose trip count was known when it was optimized, which runs its body that many times without testing a
+     * counter. Like that of a {@link WhileLoop}, the body is relative to {@code offset}.
+     */
+    static final class Repeat extends Control {
+        final int offset;
+        final int count;
+
+        /**
+         * The body, taken on its first run and dropped like the footprint when the body is rewritten.
+         */
+        @Nullable
+        private volatile PureBody pureBody;
+        /**
+         * Footprint of the repeat in the coordinates around it.
+         */
+        @Nullable
+        private volatile Footprint footprint;
+
+        Repeat(int offset, int count, InstructionBlock block) {
+            super(block);
+            this.offset = offset;
+            this.count = count;
+        }
+
+        @NotNull
+        @Override
+        public String toString() {
+            return "repeat " + offset + " x" + count + " {\n" + block.toString().replaceAll("(^|\\n)(?=.)", "$1  ")
+                    + "}";
+        }
+
+        @NotNull
+        @Override
+        public Repeat offset(int offset) {
+            return new Repeat(this.offset + offset, count, block.clone());
+        }
+
+        @NotNull
+        @Override
+        Repeat copy() {
+            return new Repeat(offset, count, block.copy());
+        }
+
+        @Override
+        boolean optimize(@NotNull InstructionBlock.Position position,
+                @NotNull Function<Integer, Guarantee> preBlockGuarantees, Predicate<Integer> postBlockIgnores) {
+            boolean optimized = block.optimize();
+            if (block.isEmpty()) {
+                position.replace(Collections.emptyList());
+                return true;
+            }
+            if (optimized) {
+                pureBody = null;
+                footprint = null;
+            }
+            return optimized;
+        }
+
+        @NotNull
+        private PureBody pureBody() {
+            PureBody body = pureBody;
+            if (body == null) {
+                body = PureBody.of(block);
+                pureBody = body;
+            }
+            return body;
+        }
+
+        @NotNull
+        private Footprint footprint() {
+            Footprint footprint = this.footprint;
+            if (footprint == null) {
+                footprint = new Footprint();
+                footprint(footprint);
+                this.footprint = footprint;
+            }
+            return footprint;
+        }
+
+        @NotNull
+        @Override
+        Guarantee guarantees(@NotNull InstructionBlock.Position position, int request,
+                @NotNull Function<Integer, Guarantee> preBlockGuarantees) {
+            Footprint footprint = footprint();
+            if (footprint.bounded && !footprint.writes.contains(request)) {
+                return position.guarantees(request, preBlockGuarantees);
+            }
+            return new Guarantee.Unknown(position, request);
+        }
+
+        @Override
+        boolean ignores(@NotNull InstructionBlock.Position position, int request, Predicate<Integer> postBlockIgnores) {
+            Footprint footprint = footprint();
+            return footprint.bounded && !footprint.touches(request) && position.ignores(request, postBlockIgnores);
+        }
+
+        @Override
+        public String execute(@NotNull State state) {
+            state.pointer += offset;
+            String out = "";
+            PureBody body = state.profile == null ? pureBody() : null;
+            PureInstruction[] pure = body == null ? null : body.instructions;
+            Footprint footprint = body == null ? null : body.footprint;
+            byte[] tape = pure == null || !state.tape.heap() ? null : state.tape.array(state.pointer + footprint.min(),
+                    state.pointer + footprint.max());
+            if (tape != null) {
+                int pointer = state.pointer - state.tape.base(state.pointer + footprint.min());
+                for (int i = 0; i < count; i++) {
+                    for (PureInstruction inst : pure) {
+                        inst.executeUnchecked(tape, pointer, state);
+                    }
+                }
+            } else {
+                for (int i = 0; i < count; i++) {
+                    out += block.execute(state);
+                }
             }
-            return optimized;
+            state.pointer -= offset;
+            return out;
         }
 
-        @NotNull
         @Override
-        Guarantee guarantees(@NotNull InstructionBlock.Position position, int request,
-                @NotNull Function<Integer, Guarantee> preBlockGuarantees) {
-            return position.guarantees(offset, preBlockGuarantees)
-                    .conditional(block.guarantees(request, i -> position.guarantees(i, preBlockGuarantees)),
-                            position.guarantees(request, preBlockGuarantees));
+        int origin() {
+            return offset;
         }
 
         @Override
-        public String execute(@NotNull State state) {
-            if (state.tape[state.pointer + offset] != 0) {
-                return block.execute(state);
+        boolean runs(@NotNull State state, int pass) {
+            return pass < count;
+        }
+
+        @Override
+        void emit(@NotNull Transpiler.Source t) {
+            t.repeat(offset, count, block);
+        }
+
+        @Override
+        void footprint(@NotNull Footprint footprint) {
+            int entry = footprint.pointer;
+            footprint.pointer += offset;
+            for (Instruction inst : block) {
+                inst.footprint(footprint);
             }
-            return "";
+            if (footprint.pointer != entry + offset) {
+                footprint.bounded = false;
+            }
+            footprint.pointer = entry;
         }
     }
 
-    static class WhileLoop extends Control {
-
-        static boolean testing = false;
-        final int offset;
+    /**
+     * Top-level loops without I/O whose bounded footprints do not conflict, which run at the same time on a
+     * {@link ForkJoinPool}. Each loop gets its own pointer on the shared tape, and all of them are joined before the
+     * next instruction. Only a {@link Tape.Flat} that holds every footprint is shared; on other tapes, and when
+     * profiling, the loops run in order. Like that of an {@code If}, the block uses the coordinates around it.
+     */
+    static final class Parallel extends Control {
+
+        /**
+         * Off by default, since the loops then run on other threads than the caller.
+         */
+        static boolean enabled = false;
+        /**
+         * Estimated {@link CostModel#cost} at least two of the loops need before forking pays off.
+         */
+        static double minCost = 1000;
+
+        private final int min;
+        private final int max;
+
+        Parallel(@NotNull InstructionBlock block) {
+            super(block);
+            Footprint footprint = Footprint.of(block);
+            min = footprint.min();
+            max = footprint.max();
+        }
+
+        /**
+         * Groups runs of consecutive top-level loops that can run at the same time. A loop joins the run when it
+         * writes no cell the run touches and reads no cell the run writes.
+         *
+         * @return whether anything was grouped
+         */
+        static boolean lower(@NotNull InstructionBlock block) {
+            if (!enabled) {
+                return false;
+            }
+            boolean lowered = false;
+            InstructionBlock.Position position = block.first;
+            while (position != null) {
+                if (!forks(position.instruction)) {
+                    position = position.next;
+                    continue;
+                }
+                Footprint run = Footprint.of(Collections.singletonList(position.instruction));
+                List<Instruction> loops = new ArrayList<>();
+                loops.add(position.instruction);
+                InstructionBlock.Position end = position;
+                while (end.next != null && forks(end.next.instruction)
+                        && independent(run, Footprint.of(Collections.singletonList(end.next.instruction)))) {
+                    end = end.next;
+                    end.instruction.footprint(run);
+                    loops.add(end.instruction);
+                }
+                InstructionBlock.Position next = end.next;
+                if (loops.stream().filter(loop -> CostModel.cost(loop) >= minCost).count() >= 2) {
+                    position.replace(end, Collections.singletonList(new Parallel(new InstructionBlock(loops))));
+                    lowered = true;
+                }
+                position = next;
+            }
+            return lowered;
+        }
 
+        private static boolean forks(@NotNull Instruction inst) {
+            if (!(inst instanceof WhileLoop)) {
+                return false;
+            }
+            Footprint footprint = new Footprint();
+            inst.footprint(footprint);
+            return footprint.bounded && !footprint.io;
+        }
 
-        WhileLoop(int offset) {
-            this(offset, new InstructionBlock(b -> preBlockGuarantees -> i -> {
-                Guarantee unknown;
-                if (i == 0) {
-                    unknown = new Guarantee.Unknown(b, i) {
-                        @Override
-                        boolean inequalsValue(byte i) {
-                            return i == 0;
-                        }
-                    };
-                } else {
-                    unknown = new Guarantee.Unknown(b, i);
+        private static boolean independent(@NotNull Footprint run, @NotNull Footprint loop) {
+            for (int cell : loop.writes) {
+                if (run.touches(cell)) {
+                    return false;
                 }
-                if (!Instruction.WhileLoop.testing) {
-                    Instruction.WhileLoop.testing = true;
-                    Guarantee through = b.guarantees(i, preBlockGuarantees);
-                    Instruction.WhileLoop.testing = false;
-                    if (through.equals(unknown)) {
-                        return preBlockGuarantees.apply(i);
-                    }
+            }
+            for (int cell : loop.reads) {
+                if (run.writes.contains(cell)) {
+                    return false;
                 }
-                return unknown;
-            }, i -> d -> false));
+            }
+            return true;
         }
 
-        WhileLoop(int offset, InstructionBlock optimizedBlock) {
-            super(optimizedBlock);
-            this.offset = offset;
+        @NotNull
+        @Override
+        public String toString() {
+            return "parallel {\n" + block.toString().replaceAll("(^|\\n)(?=.)", "$1  ") + "}";
         }
 
         @NotNull
         @Override
-        Guarantee guarantees(@NotNull InstructionBlock.Position position, int request,
-                @NotNull Function<Integer, Guarantee> preBlockGuarantees) {
-            if (request == offset)
-                return Guarantee.constant(0);
-            else {
-                return position.guarantees(offset, preBlockGuarantees).conditional(block.guarantees(request, i -> position.guarantees(i - offset, preBlockGuarantees)),
-                        position.guarantees(request, preBlockGuarantees));
-            }
+        public Parallel offset(int offset) {
+            InstructionBlock newBlock = block.clone();
+            newBlock.offset(offset);
+            return new Parallel(newBlock);
         }
 
+        @NotNull
         @Override
-        boolean ignores(@NotNull InstructionBlock.Position position, int request, Predicate<Integer> postBlockIgnores) {
-            return request != offset
-                    && block.ignores(request, i -> position.ignores(i + offset, postBlockIgnores))
-                    && position.ignores(request, i -> position.ignores(i, postBlockIgnores));
-
+        Parallel copy() {
+            return new Parallel(block.copy());
         }
 
-        @NotNull
+        /**
+         * The loops are grouped after the optimizer is done with them.
+         */
         @Override
-        public String toString() {
-            return "while " + offset + " {\n" + block.toString().replaceAll("(^|\\n)(?=.)", "$1  ") + "}";
+        boolean optimize(@NotNull InstructionBlock.Position position,
+                @NotNull Function<Integer, Guarantee> preBlockGuarantees, Predicate<Integer> postBlockIgnores) {
+            return false;
         }
 
         @NotNull
         @Override
-        public WhileLoop offset(int offset) {
-            return new WhileLoop(this.offset + offset, block.clone());
+        Guarantee guarantees(@NotNull InstructionBlock.Position position, int request,
+                @NotNull Function<Integer, Guarantee> preBlockGuarantees) {
+            return block.guarantees(request, i -> position.guarantees(i, preBlockGuarantees));
         }
 
-        public boolean optimize(@NotNull InstructionBlock.Position position,
-                @NotNull Function<Integer, Guarantee> preBlockGuarantees,
-                Predicate<Integer> postBlockIgnores) {
-            boolean optimized = false;
+        @Override
+        boolean ignores(@NotNull InstructionBlock.Position position, int request, Predicate<Integer> postBlockIgnores) {
+            return block.ignores(request, i -> position.ignores(i, postBlockIgnores));
+        }
 
-            while (block.optimize()) {
-                optimized = true;
+        /**
+         * Runs the first loop on the calling thread and forks the others, then joins them in order. When loops fail,
+         * the first of them in program order throws once all have stopped.
+         */
+        @Override
+        public String execute(@NotNull State state) {
+            if (state.profile != null || !(state.tape instanceof Tape.Flat) || state.pointer + min < 0
+                    || state.pointer + max >= state.tape.size()) {
+                return block.execute(state);
             }
-
-            boolean copyOptimizable = true;
-            int loopDiff = 0;
-            Set<Integer> touched = new HashSet<>();
-            if (block.first != null) {
-                for (Instruction inst : block) {
-                    if (inst instanceof Add) {
-                        Add add = (Add) inst;
-                        if (add.offset == 0) {
-                            loopDiff += add.amount;
-                        }
-                        if (touched.contains(add.offset)) {
-                            copyOptimizable = false;
-                        }
-                    } else if ((inst instanceof SetValue)) {
-                        SetValue set = (SetValue) inst;
-                        if (set.offset == 0) {
-                            copyOptimizable = false;
-                        }
-                        touched.add(set.offset);
-                    } else {
-                        copyOptimizable = false;
-                    }
-                }
-                if (loopDiff != -1) {
-                    copyOptimizable = false;
+            List<ForkJoinTask<String>> tasks = new ArrayList<>();
+            Instruction first = null;
+            for (Instruction inst : block) {
+                if (first == null) {
+                    first = inst;
+                } else {
+                    State branch = new State(state.tape);
+                    branch.pointer = state.pointer;
+                    branch.parent = state;
+                    tasks.add(ForkJoinTask.adapt(() -> inst.execute(branch)).fork());
                 }
-            } else {
-                copyOptimizable = false;
             }
-            if (copyOptimizable) {
-                InstructionBlock.Position replace = new InstructionBlock.Position(new Null(), position.block);
-                InstructionBlock.Position curr = replace;
-                for (Instruction inst : block) {
-                    Instruction nextInstruction;
-                    if (inst instanceof Add) {
-                        Add add = (Add) inst;
-                        if (add.offset == 0)
-                            continue;
-                        nextInstruction = new Copy(offset, add.offset + offset, add.amount);
-                        curr.next = new InstructionBlock.Position(nextInstruction, position.block);
-                        curr.next.previous = curr;
-                        curr = curr.next;
-                    } else if (inst instanceof SetValue) {
-                        SetValue set = (SetValue) inst;
-                        If ifInstruction = new If(offset);
-                        curr.next = new InstructionBlock.Position(ifInstruction, position.block);
-                        curr.next.previous = curr;
-                        ifInstruction.block.first = new InstructionBlock.Position(new SetValue(set.value,
-                                set.offset + offset), ifInstruction.block);
-                        curr = curr.next;
-                        assert curr != null;
-                    } else {
-                        throw new NotImplementedException();
-                    }
-                }
-                curr.next = new InstructionBlock.Position(new SetValue((byte) 0, offset), position.block);
-                curr.next.previous = curr;
-                curr = curr.next;
-                position.replaceAfter(curr);
-                position.replaceBefore(replace);
-                return true;
-            } else if (position.guarantees(offset, preBlockGuarantees).equalsValue(0)) {
-                position.replaceBefore(position.next);
-                return true;
-            } else if (block.guarantees(0, i -> position.guarantees(i + offset, preBlockGuarantees)).equalsValue(0)) {
-                If ifInst = new If(offset);
-                InstructionBlock.Position ifPos = new InstructionBlock.Position(ifInst, position.block);
-                ifInst.block.addAll(block);
-                ifInst.block.offset(offset);
-                InstructionBlock.Position setPos = new InstructionBlock.Position(new SetValue((byte) 0, offset), position.block);
-                ifPos.next = setPos;
-                setPos.previous = ifPos;
-                position.replaceBefore(ifPos);
-                position.replaceAfter(setPos);
-                return true;
-            } else {
-                if (position.guarantees(offset, preBlockGuarantees).inequalsValue(0)) {
-                    InstructionBlock.Position pos = new InstructionBlock.Position(new Null(), position.block);
-                    InstructionBlock.Position first = pos;
-                    for (Instruction in : block) {
-                        pos.next = new InstructionBlock.Position(in.offset(offset), position.block);
-                        pos.next.previous = pos;
-                        pos = pos.next;
+            RuntimeException failure = null;
+            try {
+                first.execute(state);
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+            for (ForkJoinTask<String> task : tasks) {
+                try {
+                    task.join();
+                } catch (RuntimeException e) {
+                    if (failure == null) {
+                        failure = e;
                     }
-                    Control newWhile = new WhileLoop(offset);
-                    newWhile.block.addAll(this.block);
-                    pos.next = new InstructionBlock.Position(newWhile, position.block);
-                    pos.next.previous = pos;
-                    position.replaceBefore(first);
-                    position.replaceAfter(pos.next);
-                    return true;
                 }
-                return optimized;
             }
+            if (failure != null) {
+                throw failure;
+            }
+            return "";
         }
 
         @Override
-        public String execute(@NotNull State state) {
-            String out = "";
-            state.pointer += offset;
-            while (state.tape[state.pointer] != 0) {
-                out += block.execute(state);
+        int origin() {
+            return 0;
+        }
+
+        @Override
+        boolean runs(@NotNull State state, int pass) {
+            return pass == 0;
+        }
+
+        /**
+         * Generated code runs the loops in order.
+         */
+        @Override
+        void emit(@NotNull Transpiler.Source t) {
+            t.block(block);
+        }
+
+        @Override
+        void footprint(@NotNull Footprint footprint) {
+            for (Instruction inst : block) {
+                inst.footprint(footprint);
             }
-            state.pointer -= offset;
-            return out;
         }
     }
 
@@ -713,13 +3027,24 @@ abstract class Instruction implements Cloneable {
         @Override
         public String execute(@NotNull State state) {
             try {
-                state.tape[state.pointer + offset] = (byte) System.in.read();
+                state.tape.set(state.pointer + offset, (byte) state.in.read());
             } catch (IOException e) {
                 e.printStackTrace();
             }
             return "";
         }
 
+        @Override
+        void emit(@NotNull Transpiler.Source t) {
+            t.line(Transpiler.Source.cell(offset) + " = (byte) in.read();");
+        }
+
+        @Override
+        void footprint(@NotNull Footprint footprint) {
+            footprint.write(offset);
+            footprint.io = true;
+        }
+
         @NotNull
         @Override
         public String toString() {
@@ -753,6 +3078,130 @@ abstract class Instruction implements Cloneable {
         }
     }
 
+    /**
+     * The {@code Y} of the Brainfork dialect, which splits the running thread in two. Only {@link Brainfork} runs it:
+     * the parent goes on with the cell set to zero, the child on a copy of the tape with the pointer one cell to the
+     * right and that cell set to one. Nothing is known about the tape after a fork, since the instructions after it
+     * run at two different pointers.
+     */
+    static final class Fork extends Instruction {
+        final int offset;
+
+        Fork(int offset) {
+            this.offset = offset;
+        }
+
+        @Override
+        public String execute(@NotNull State state) {
+            throw new IllegalArgumentException("a Brainfork program only runs in Brainfork.execute");
+        }
+
+        @Override
+        void emit(@NotNull Transpiler.Source t) {
+            throw new IllegalArgumentException("a Brainfork program cannot be transpiled");
+        }
+
+        /**
+         * Also writes the cell right of the pointer, in the child. A fork counts as I/O and leaves the footprint
+         * unbounded, so loops around it are not run as pure loops.
+         */
+        @Override
+        void footprint(@NotNull Footprint footprint) {
+            footprint.write(offset);
+            footprint.write(offset + 1);
+            footprint.io = true;
+            footprint.bounded = false;
+        }
+
+        @NotNull
+        @Override
+        public String toString() {
+            return "fork " + offset;
+        }
+
+        @NotNull
+        @Override
+        public Instruction offset(int offset) {
+            return new Fork(this.offset + offset);
+        }
+
+        @Override
+        boolean optimize(InstructionBlock.Position position, Function<Integer, Guarantee> preBlockGuarantees,
+                Predicate<Integer> postBlockIgnores) {
+            return false;
+        }
+
+        @Override
+        Guarantee guarantees(@NotNull InstructionBlock.Position position, int request,
+                @NotNull Function<Integer, Guarantee> preBlockGuarantees) {
+            return new Guarantee.Unknown(this, request);
+        }
+
+        @Override
+        boolean ignores(@NotNull InstructionBlock.Position position, int request, Predicate<Integer> postBlockIgnores) {
+            return false;
+        }
+    }
+
+    /**
+     * Snapshot of a loop body made only of pure instructions, with its footprint relative to the counter, so the window
+     * can be checked against the tape once and the iterations can skip the per-access bounds checks. Loops take it on
+     * their first run and drop it when they rewrite their body.
+     */
+    static final class PureBody {
+        /**
+         * The body, or null when it has other instructions.
+         */
+        @Nullable
+        final PureInstruction[] instructions;
+        @NotNull
+        final Footprint footprint;
+
+        private PureBody(@Nullable PureInstruction[] instructions, @NotNull Footprint footprint) {
+            this.instructions = instructions;
+            this.footprint = footprint;
+        }
+
+        @NotNull
+        static PureBody of(@NotNull InstructionBlock block) {
+            List<PureInstruction> pure = new ArrayList<>();
+            Footprint footprint = new Footprint();
+            footprint.read(0);
+            for (Instruction inst : block) {
+                if (inst instanceof PureInstruction) {
+                    pure.add((PureInstruction) inst);
+                    inst.footprint(footprint);
+                } else if (!(inst instanceof Null)) {
+                    return new PureBody(null, footprint);
+                }
+            }
+            return new PureBody(pure.toArray(new PureInstruction[pure.size()]), footprint);
+        }
+
+        /**
+         * Snapshot of a body that may also shift, with each instruction moved to the pointer its pass starts on.
+         */
+        @NotNull
+        static PureBody walk(@NotNull InstructionBlock block) {
+            List<PureInstruction> pure = new ArrayList<>();
+            Footprint footprint = new Footprint();
+            footprint.read(0);
+            int pointer = 0;
+            for (Instruction inst : block) {
+                if (inst instanceof Shift) {
+                    pointer += ((Shift) inst).amount;
+                } else if (inst instanceof PureInstruction) {
+                    PureInstruction moved = (PureInstruction) inst.offset(pointer);
+                    moved.footprint(footprint);
+                    pure.add(moved);
+                } else if (!(inst instanceof Null)) {
+                    return new PureBody(null, footprint);
+                }
+            }
+            return new PureBody(pure.toArray(new PureInstruction[pure.size()]), footprint);
+        }
+    }
+
     static abstract class ConstantInstruction extends Instruction {
 
     }
@@ -761,6 +3210,24 @@ abstract class Instruction implements Cloneable {
 
     }
 
+    /**
+     * Stable instruction touching only cells at fixed offsets, without I/O.
+     */
+    static abstract class PureInstruction extends StableInstruction {
+
+        /**
+         * Executes the instruction on a tape the caller has already checked covers its whole footprint.
+         */
+        abstract void executeUnchecked(@NotNull byte[] tape, int pointer);
+
+        /**
+         * Like {@link #executeUnchecked(byte[], int)}, taking any scratch space from the running state.
+         */
+        void executeUnchecked(@NotNull byte[] tape, int pointer, @NotNull State state) {
+            executeUnchecked(tape, pointer);
+        }
+    }
+
     static class Out extends StableInstruction {
         private final int offset;
 
@@ -780,7 +3247,7 @@ abstract class Instruction implements Cloneable {
             Guarantee val = position.guarantees(offset, preBlockGuarantees);
             if (val.isConstant()) {
                 byte value = val.getValue();
-                Print print = new Print(Character.toString((char) (int) value));
+                Print print = new Print(Character.toString((char) (value & 0xFF)));
                 InstructionBlock.Position printPos = new InstructionBlock.Position(print, position.block);
                 position.replaceAfter(printPos);
                 position.replaceBefore(printPos);
@@ -807,7 +3274,18 @@ abstract class Instruction implements Cloneable {
 
         @Override
         public String execute(@NotNull State state) {
-            return Character.toString((char) ((state.tape[state.pointer + offset] + 256) % 256));
+            return state.emit(Character.toString((char) ((state.tape.get(state.pointer + offset) + 256) % 256)));
+        }
+
+        @Override
+        void emit(@NotNull Transpiler.Source t) {
+            t.line("out.write(" + Transpiler.Source.cell(offset) + ");");
+        }
+
+        @Override
+        void footprint(@NotNull Footprint footprint) {
+            footprint.read(offset);
+            footprint.io = true;
         }
 
     }
@@ -845,7 +3323,17 @@ abstract class Instruction implements Cloneable {
 
         @Override
         public String execute(State state) {
-            return string;
+            return state.emit(string);
+        }
+
+        @Override
+        void emit(@NotNull Transpiler.Source t) {
+            t.line("out.write(" + t.constant(string.getBytes(StandardCharsets.ISO_8859_1)) + ");");
+        }
+
+        @Override
+        void footprint(@NotNull Footprint footprint) {
+            footprint.io = true;
         }
 
         @NotNull
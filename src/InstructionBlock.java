@@ -4,12 +4,18 @@ import org.jetbrains.annotations.Nullable;
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
 class InstructionBlock implements Cloneable, Iterable<Instruction> {
 
-    boolean print = false;
+    /**
+     * Rewrites made by {@link #optimize} and {@link #optimized} so far, which {@link Brainfuck#optimize} reports per
+     * pass.
+     */
+    static final LongAdder rewrites = new LongAdder();
 
     private final Function<InstructionBlock, Function<Function<Integer, Guarantee>, Function<Integer, Guarantee>>> guarantees;
     private final Function<Predicate<Integer>, Predicate<Integer>> ignores;
@@ -41,6 +47,11 @@ class InstructionBlock implements Cloneable, Iterable<Instruction> {
         list.forEach(this::add);
     }
 
+    void clear() {
+        first = null;
+        last = null;
+    }
+
     @Contract(pure = true)
     Guarantee guarantees(int request, @NotNull Function<Integer, Guarantee> guarantees) {
         if (last != null) {
@@ -64,6 +75,28 @@ class InstructionBlock implements Cloneable, Iterable<Instruction> {
 
     @NotNull
     static FromReturn from(@NotNull String input) {
+        return from(input, false);
+    }
+
+    /**
+     * @param forks whether {@code Y} is a {@link Instruction.Fork}, as in the Brainfork dialect
+     */
+    @NotNull
+    static FromReturn from(@NotNull String input, boolean forks) {
+        Events.Parse event = new Events.Parse();
+        event.begin();
+        FromReturn parsed = parse(input, forks);
+        event.end();
+        if (event.shouldCommit()) {
+            event.length = input.length();
+            event.instructions = CostModel.size(new InstructionBlock(parsed.inst));
+            event.commit();
+        }
+        return parsed;
+    }
+
+    @NotNull
+    private static FromReturn parse(@NotNull String input, boolean forks) {
         List<Instruction> instructions = new ArrayList<>();
         while (!input.isEmpty()) {
             if (input.charAt(0) == '[') {
@@ -71,42 +104,47 @@ class InstructionBlock implements Cloneable, Iterable<Instruction> {
                 Instruction.WhileLoop whileLoop = new Instruction.WhileLoop(0);
                 instructions.add(whileLoop);
 
-                FromReturn fr = InstructionBlock.from(input);
+                FromReturn fr = parse(input, forks);
                 whileLoop.block.addAll(fr.inst);
                 input = fr.remainder.substring(1);
             } else if (input.charAt(0) == ']') {
                 break;
             } else {
-                Instruction next;
-                switch (input.charAt(0)) {
-                    case '+':
-                        next = new Instruction.Add((byte) 1, 0);
-                        break;
-                    case '-':
-                        next = new Instruction.Add((byte) -1, 0);
-                        break;
-                    case '>':
-                        next = new Instruction.Shift(1);
-                        break;
-                    case '<':
-                        next = new Instruction.Shift(-1);
-                        break;
-                    case '.':
-                        next = new Instruction.Out(0);
-                        break;
-                    case ',':
-                        next = new Instruction.Read(0);
-                        break;
-                    default:
-                        throw new NotImplementedException();
-                }
-                instructions.add(next);
+                instructions.add(instruction(input.charAt(0), forks));
                 input = input.substring(1);
             }
         }
         return new FromReturn(instructions, input);
     }
 
+    @NotNull
+    static Instruction instruction(char c) {
+        return instruction(c, false);
+    }
+
+    @NotNull
+    static Instruction instruction(char c, boolean forks) {
+        switch (c) {
+            case '+':
+                return new Instruction.Add((byte) 1, 0);
+            case '-':
+                return new Instruction.Add((byte) -1, 0);
+            case '>':
+                return new Instruction.Shift(1);
+            case '<':
+                return new Instruction.Shift(-1);
+            case '.':
+                return new Instruction.Out(0);
+            case ',':
+                return new Instruction.Read(0);
+            default:
+                if (c == 'Y' && forks) {
+                    return new Instruction.Fork(0);
+                }
+                throw new NotImplementedException();
+        }
+    }
+
     void offset(int offset) {
         Position pos = first;
         while (pos != null) {
@@ -183,6 +221,46 @@ class InstructionBlock implements Cloneable, Iterable<Instruction> {
             replaceAfter(other);
         }
 
+        /**
+         * Replaces this position with a sequence of instructions, which may be empty.
+         */
+        void replace(@NotNull Iterable<Instruction> instructions) {
+            replace(this, instructions);
+        }
+
+        /**
+         * Replaces the positions from this one through {@code end} with a sequence of instructions, which may be empty.
+         */
+        void replace(@NotNull Position end, @NotNull Iterable<Instruction> instructions) {
+            Position first = null;
+            Position last = null;
+            for (Instruction inst : instructions) {
+                Position pos = new Position(inst, block);
+                if (last == null) {
+                    first = pos;
+                } else {
+                    last.next = pos;
+                    pos.previous = last;
+                }
+                last = pos;
+            }
+            if (first == null) {
+                if (previous == null) {
+                    block.first = end.next;
+                } else {
+                    previous.next = end.next;
+                }
+                if (end.next == null) {
+                    block.last = previous;
+                } else {
+                    end.next.previous = previous;
+                }
+            } else {
+                replaceBefore(first);
+                end.replaceAfter(last);
+            }
+        }
+
         void replaceBefore(@Nullable Position other) {
             if (previous == null) {
                 block.first = other;
@@ -246,7 +324,10 @@ class InstructionBlock implements Cloneable, Iterable<Instruction> {
         return pointerDiff == 0;
     }
 
-    private static int i = 0;
+    @NotNull
+    Footprint footprint() {
+        return Footprint.of(this);
+    }
 
     String execute(State state) {
         String out = "";
@@ -259,32 +340,41 @@ class InstructionBlock implements Cloneable, Iterable<Instruction> {
     }
 
 
-    @NotNull
+    /**
+     * @return the position at the index, or null at index 0 when a rewrite left the block empty
+     * @throws IndexOutOfBoundsException when the block is shorter otherwise
+     */
+    @Nullable
     @Contract(pure = true)
     private Position getPosition(int index) {
         Position pos = first;
         for (int i = 0; i < index && pos != null; i++) {
             pos = pos.next;
         }
-        if (pos == null)
-            throw new IndexOutOfBoundsException();
+        if (pos == null && index > 0)
+            throw new IndexOutOfBoundsException(String.valueOf(index));
         return pos;
     }
 
+    /**
+     * Lets a caller stop the optimizer by interrupting its thread, see {@link ProgramCache}.
+     *
+     * @throws CancellationException when the thread was interrupted
+     */
+    private static void checkInterrupted() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("optimizer interrupted");
+        }
+    }
+
     boolean optimize() {
         Position pos = first;
         boolean optimized = false;
         int index = 0;
         while (pos != null) {
+            checkInterrupted();
             if (pos.optimize()) {
-                if (this.print) {
-                    System.out.println(i + ": ");
-                    if (i % 1000000 == 0) {
-                        execute(new State(700));
-                        System.out.println();
-                    }
-                    i++;
-                }
+                rewrites.increment();
                 index = Math.max(index - 2, 0);
                 pos = getPosition(index);
                 optimized = true;
@@ -304,25 +394,36 @@ class InstructionBlock implements Cloneable, Iterable<Instruction> {
         return clone;
     }
 
+    /**
+     * Copy of the block whose instructions share no state with these, see {@link Instruction#copy}.
+     */
+    @NotNull
+    InstructionBlock copy() {
+        InstructionBlock copy = new InstructionBlock(guarantees, ignores);
+        for (Instruction inst : this) {
+            copy.add(inst.copy());
+        }
+        return copy;
+    }
+
+    /**
+     * Runs one pass over a copy of the top-level list, so a pass costs the size of the block even when little
+     * changes. Rewrites relink positions before and after the one they optimize, which a shared list could not
+     * allow.
+     *
+     * @return the rewritten copy, or null when nothing changed
+     */
     @Nullable
     @Contract(pure = true)
     InstructionBlock optimized(@NotNull Function<InstructionBlock, Function<Integer, Guarantee>> preBlockGuarantees, Predicate<Integer> postBlockIgnores) {
         boolean optimized = false;
         int index = 0;
         InstructionBlock other = this.clone();
-        other.print = this.print;
         Position pos = other.first;
-        int p = 0;
         while (pos != null) {
+            checkInterrupted();
             if (pos.optimize(preBlockGuarantees.apply(other), postBlockIgnores)) {
-                if (this.print) {
-                    System.out.println(Brainfuck.j + ", " + i + ", " + p + ": ");
-                    if (i % 1000000 == 0) {
-                        other.execute(new State(700));
-                        System.out.println();
-                    }
-                    i++; p++;
-                }
+                rewrites.increment();
                 index = Math.max(index - 2, 0);
                 pos = other.getPosition(index);
                 optimized = true;
@@ -337,13 +438,13 @@ class InstructionBlock implements Cloneable, Iterable<Instruction> {
     @NotNull
     @Override
     public String toString() {
-        String s = "";
+        StringBuilder s = new StringBuilder();
         Position pos = first;
         while (pos != null) {
-            s += pos.instruction.toString() + "\n";
+            s.append(pos.instruction.toString()).append("\n");
             pos = pos.next;
         }
-        return s;
+        return s.toString();
     }
 
 
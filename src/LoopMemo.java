@@ -0,0 +1,166 @@
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+
+/**
+ * Results of a loop without I/O, keyed on the cells it reads, so a loop run again on the same values replays its
+ * writes instead of iterating.
+ * <p>
+ * Only loops with a balanced body and a bounded {@link Footprint} qualify: they end with the pointer on their counter,
+ * so a result is just the final value of every cell they write. A loop whose counter is zero does nothing, and when it
+ * is not, cells the first pass overwrites before reading them are left out of the key. Each loop keeps its most
+ * recently used {@link #capacity} results. Memoization is off unless {@link #enabled}.
+ */
+final class LoopMemo {
+
+    static boolean enabled = false;
+    static int capacity = 256;
+
+    private static final Map<Instruction.WhileLoop, LoopMemo> memos = Collections.synchronizedMap(new WeakHashMap<>());
+
+    @NotNull
+    private final String loop;
+    final int[] key;
+    private final int[] writes;
+    private final int min;
+    private final int max;
+    private final Map<ByteBuffer, byte[]> results = new LinkedHashMap<ByteBuffer, byte[]>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteBuffer, byte[]> eldest) {
+            return size() > capacity;
+        }
+    };
+    private long hits = 0;
+    private long misses = 0;
+
+    private LoopMemo(@NotNull String loop, @NotNull int[] key, @NotNull int[] writes, int min, int max) {
+        this.loop = loop;
+        this.key = key;
+        this.writes = writes;
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * @return the memo of the loop, or null when it cannot be memoized
+     */
+    @Nullable
+    static LoopMemo of(@NotNull Instruction.WhileLoop loop) {
+        Instruction.WhileLoop counter = loop.offset(-loop.offset);
+        Footprint footprint = new Footprint();
+        counter.footprint(footprint);
+        if (footprint.io || !footprint.bounded) {
+            return null;
+        }
+        // the loop with its first pass peeled, which is what runs when the counter is not zero
+        List<Instruction> peeled = new ArrayList<>();
+        for (Instruction inst : counter.block) {
+            peeled.add(inst.offset(0));
+        }
+        peeled.add(counter);
+        InstructionBlock scratch = new InstructionBlock(peeled);
+        SortedSet<Integer> cells = new TreeSet<>(footprint.reads);
+        cells.addAll(footprint.writes);
+        List<Integer> key = new ArrayList<>();
+        for (int cell : cells) {
+            if (cell == 0 || !scratch.ignores(cell, i -> false)) {
+                key.add(cell);
+            }
+        }
+        LoopMemo memo = new LoopMemo(loop.toString(), key.stream().mapToInt(i -> i).toArray(),
+                footprint.writes.stream().mapToInt(i -> i).toArray(), footprint.min(), footprint.max());
+        memos.put(loop, memo);
+        return memo;
+    }
+
+    /**
+     * Replays the result of the loop with the pointer on its counter, or runs it and keeps the result.
+     *
+     * @param run runs the loop with the pointer on its counter
+     * @return the output, which is always empty, or null when the footprint leaves the tape and the loop has to run
+     * as usual
+     */
+    @Nullable
+    String execute(@NotNull State state, @NotNull Runnable run) {
+        if (state.pointer + min < 0 || state.pointer + max >= state.tape.size()) {
+            return null;
+        }
+        if (state.tape.get(state.pointer) == 0) {
+            return "";
+        }
+        byte[] values = new byte[key.length];
+        for (int i = 0; i < key.length; i++) {
+            values[i] = state.tape.get(state.pointer + key[i]);
+        }
+        ByteBuffer k = ByteBuffer.wrap(values);
+        byte[] result;
+        synchronized (this) {
+            result = results.get(k);
+            if (result != null) {
+                hits++;
+            } else {
+                misses++;
+            }
+        }
+        if (result != null) {
+            for (int i = 0; i < writes.length; i++) {
+                state.tape.set(state.pointer + writes[i], result[i]);
+            }
+            return "";
+        }
+        run.run();
+        result = new byte[writes.length];
+        for (int i = 0; i < writes.length; i++) {
+            result[i] = state.tape.get(state.pointer + writes[i]);
+        }
+        synchronized (this) {
+            results.put(k, result);
+        }
+        return "";
+    }
+
+    synchronized long hits() {
+        return hits;
+    }
+
+    synchronized long misses() {
+        return misses;
+    }
+
+    synchronized double hitRate() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    /**
+     * Hit rates of the memoized loops that ran, most hits first.
+     */
+    @NotNull
+    static String report() {
+        List<LoopMemo> list;
+        synchronized (memos) {
+            list = new ArrayList<>(memos.values());
+        }
+        list.removeIf(memo -> memo.hits() + memo.misses() == 0);
+        list.sort((a, b) -> Long.compare(b.hits(), a.hits()));
+        long hits = list.stream().mapToLong(LoopMemo::hits).sum();
+        long misses = list.stream().mapToLong(LoopMemo::misses).sum();
+        StringBuilder s = new StringBuilder(String.format("memo: %d loops, %d hits, %d misses, hit rate %.1f%%",
+                list.size(), hits, misses, hits + misses == 0 ? 0 : 100d * hits / (hits + misses)));
+        for (LoopMemo memo : list) {
+            s.append(String.format("%n%6.1f%% of %d, key %d cells: %s", 100 * memo.hitRate(),
+                    memo.hits() + memo.misses(), memo.key.length, memo.loop.replace('\n', ' ')));
+        }
+        return s.toString();
+    }
+}
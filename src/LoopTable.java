@@ -0,0 +1,147 @@
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Canonical table of optimized loop bodies, keyed on the structure of the body.
+ * <p>
+ * A loop body is optimized with nothing known on entry but a non-zero counter, so every copy of the same body has
+ * compatible guarantees and reaches the same fixpoint. The fixpoint is computed for the first copy and handed to every
+ * later one instead of rewriting each of them separately. Each body gets its own copy of the instructions, since loops
+ * keep state, and only the {@link #capacity} most recently used bodies are kept. Bodies with loops a
+ * {@link Profile} marked cold are optimized on their own.
+ */
+final class LoopTable {
+
+    static int capacity = 4096;
+
+    private static final class Entry {
+        @NotNull
+        final List<Instruction> body;
+        /**
+         * The optimized body as a key, which equals the key of the entry when that body was already at its fixpoint.
+         */
+        @NotNull
+        final String result;
+        final long nanos;
+
+        Entry(@NotNull List<Instruction> body, @NotNull String result, long nanos) {
+            this.body = body;
+            this.result = result;
+            this.nanos = nanos;
+        }
+    }
+
+    private static final Map<String, Entry> table = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > capacity;
+        }
+    };
+
+    private static int computed = 0;
+    private static int shared = 0;
+    private static long spent = 0;
+    private static long saved = 0;
+
+    private LoopTable() {
+    }
+
+    /**
+     * Brings a loop body to its fixpoint, reusing the result of an identical body when one has been optimized before.
+     *
+     * @return whether the body changed
+     */
+    static boolean optimize(@NotNull InstructionBlock block) {
+        if (containsCold(block)) {
+            // the key does not tell cold loops apart, and their bodies must stay as parsed
+            boolean optimized = false;
+            while (block.optimize()) {
+                optimized = true;
+            }
+            return optimized;
+        }
+        String key = block.toString();
+        Entry entry = get(key);
+        if (entry != null) {
+            if (entry.result.equals(key)) {
+                return false;
+            }
+            block.clear();
+            block.addAll(copy(entry.body));
+            synchronized (LoopTable.class) {
+                shared++;
+                saved += entry.nanos;
+            }
+            return true;
+        }
+
+        long time = System.nanoTime();
+        boolean optimized = false;
+        while (block.optimize()) {
+            optimized = true;
+        }
+        time = System.nanoTime() - time;
+
+        String result = block.toString();
+        List<Instruction> body = copy(block);
+        synchronized (LoopTable.class) {
+            table.put(key, new Entry(body, result, time));
+            if (!result.equals(key) && !table.containsKey(result)) {
+                table.put(result, new Entry(body, result, 0));
+            }
+            computed++;
+            spent += time;
+        }
+        return optimized;
+    }
+
+    private static boolean containsCold(@NotNull InstructionBlock block) {
+        for (Instruction inst : block) {
+            if (Instruction.cold(inst)
+                    || inst instanceof Instruction.Control && containsCold(((Instruction.Control) inst).block)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @NotNull
+    private static List<Instruction> copy(@NotNull Iterable<Instruction> body) {
+        List<Instruction> list = new ArrayList<>();
+        for (Instruction inst : body) {
+            list.add(inst.copy());
+        }
+        return list;
+    }
+
+    private static synchronized Entry get(String key) {
+        return table.get(key);
+    }
+
+    static synchronized void clear() {
+        table.clear();
+        computed = 0;
+        shared = 0;
+        spent = 0;
+        saved = 0;
+    }
+
+    /**
+     * Ratio of loop bodies optimized to distinct bodies actually rewritten.
+     */
+    static synchronized double dedupRatio() {
+        return computed == 0 ? 1 : (computed + shared) / (double) computed;
+    }
+
+    @NotNull
+    static synchronized String report() {
+        return String.format("loop bodies: %d computed, %d shared (dedup %.2f), %.3fs spent, ~%.3fs saved",
+                computed, shared, dedupRatio(), spent / 1_000_000_000d, saved / 1_000_000_000d);
+    }
+}
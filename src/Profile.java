@@ -0,0 +1,165 @@
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Iteration counts of the loops of one program, for profile-guided optimization.
+ * <p>
+ * Loops are numbered in the order their brackets open in the source, so a profile collected on the parsed program can
+ * be saved and applied to a later parse of the same source. Loops whose subtree ran less than {@link #hotFraction} of
+ * all iterations are marked cold and left as parsed by the optimizer.
+ */
+final class Profile {
+
+    /**
+     * Share of all iterations a loop and the loops nested in it need to be optimized.
+     */
+    static double hotFraction = 0.001;
+
+    private static final class Exhausted extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Exhausted() {
+            super(null, null, false, false);
+        }
+    }
+
+    @NotNull
+    final String hash;
+    @NotNull
+    final long[] counts;
+    private long total = 0;
+    private long budget;
+
+    private final Map<Instruction.WhileLoop, Integer> ordinals = new IdentityHashMap<>();
+
+    private Profile(@NotNull String hash, @NotNull long[] counts) {
+        this.hash = hash;
+        this.counts = counts;
+    }
+
+    /**
+     * Runs a parsed program until it ends or has run {@code budget} loop iterations, without input and discarding
+     * its output.
+     */
+    @NotNull
+    static Profile collect(@NotNull String program, @NotNull InstructionBlock block, long budget) {
+        List<Instruction.WhileLoop> loops = loops(block);
+        Profile profile = new Profile(ProgramCache.hash(program), new long[loops.size()]);
+        for (int i = 0; i < loops.size(); i++) {
+            profile.ordinals.put(loops.get(i), i);
+        }
+        profile.budget = budget;
+
+        State state = new State(new Tape.Paged(1 << 24));
+        state.profile = profile;
+        state.in = new InputStream() {
+            @Override
+            public int read() {
+                return -1;
+            }
+        };
+        state.out = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        };
+        try {
+            block.execute(state);
+        } catch (Exhausted ignored) {
+        }
+        return profile;
+    }
+
+    void iteration(@NotNull Instruction.WhileLoop loop) {
+        Integer ordinal = ordinals.get(loop);
+        if (ordinal != null) {
+            counts[ordinal]++;
+        }
+        if (++total >= budget) {
+            throw new Exhausted();
+        }
+    }
+
+    /**
+     * Marks the cold loops of a parse of the profiled program.
+     *
+     * @throws IllegalArgumentException when the program has a different number of loops
+     */
+    void apply(@NotNull InstructionBlock block) {
+        List<Instruction.WhileLoop> loops = loops(block);
+        if (loops.size() != counts.length) {
+            throw new IllegalArgumentException("Profile has " + counts.length + " loops, program " + loops.size());
+        }
+        long sum = 0;
+        for (long count : counts) {
+            sum += count;
+        }
+        long threshold = Math.max(1, (long) Math.ceil(sum * hotFraction));
+        for (int i = 0; i < loops.size(); i++) {
+            loops.get(i).cold = subtree(loops, i) < threshold;
+        }
+    }
+
+    /**
+     * Iterations of a loop and every loop nested in it, which follow it in preorder.
+     */
+    private long subtree(@NotNull List<Instruction.WhileLoop> loops, int index) {
+        int end = index + 1 + loops(loops.get(index).block).size();
+        long sum = 0;
+        for (int i = index; i < end; i++) {
+            sum += counts[i];
+        }
+        return sum;
+    }
+
+    @NotNull
+    private static List<Instruction.WhileLoop> loops(@NotNull InstructionBlock block) {
+        List<Instruction.WhileLoop> loops = new ArrayList<>();
+        for (Instruction inst : block) {
+            if (inst instanceof Instruction.WhileLoop) {
+                loops.add((Instruction.WhileLoop) inst);
+                loops.addAll(loops(((Instruction.WhileLoop) inst).block));
+            }
+        }
+        return loops;
+    }
+
+    void save(@NotNull Path path) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add(hash);
+        for (long count : counts) {
+            lines.add(Long.toString(count));
+        }
+        Files.write(path, lines, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return the profile saved at the path, or null when there is none or it was collected on another program
+     */
+    @Nullable
+    static Profile load(@NotNull Path path, @NotNull String program) throws IOException {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        List<String> lines = Files.readAllLines(path, StandardCharsets.US_ASCII);
+        if (lines.isEmpty() || !lines.get(0).equals(ProgramCache.hash(program))) {
+            return null;
+        }
+        long[] counts = new long[lines.size() - 1];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = Long.parseLong(lines.get(i + 1).trim());
+        }
+        return new Profile(lines.get(0), counts);
+    }
+}
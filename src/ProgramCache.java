@@ -0,0 +1,184 @@
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Least recently used cache of optimized programs with their initial tape images, keyed on a hash of their source.
+ * <p>
+ * Entries are weighed by the size of their instructions and image, and the least recently used ones are evicted once
+ * the total weight exceeds the capacity. Loops keep state between runs, so every request gets its own
+ * {@link ProgramImage#copy} of the cached program.
+ */
+final class ProgramCache {
+
+    /**
+     * Milliseconds a program may take to optimize.
+     */
+    static long compileTimeout = 10_000;
+
+    /**
+     * Compiles on a thread of its own, which is interrupted when the compile times out. The optimizer only runs one
+     * program at a time anyway.
+     */
+    private static final ExecutorService compiler = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "compiler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final class Entry {
+        @NotNull
+        final ProgramImage program;
+        final int weight;
+
+        Entry(@NotNull ProgramImage program, int weight) {
+            this.program = program;
+            this.weight = weight;
+        }
+    }
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final long capacity;
+    private long weight = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * @param capacity total weight of the programs kept, see {@link #weigh}
+     */
+    ProgramCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns a copy of the optimized program for a source, compiling it on a miss.
+     *
+     * @throws IllegalArgumentException when the brackets of the source do not match
+     * @throws TimeoutException         when the program takes longer than {@link #compileTimeout} to optimize
+     */
+    @NotNull
+    ProgramImage get(@NotNull String source) throws TimeoutException, InterruptedException {
+        String program = source.replaceAll("[^.,\\[\\]<>+-]", "");
+        String key = hash(program);
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                hits++;
+                return entry.program.copy();
+            }
+            misses++;
+        }
+        check(program);
+        ProgramImage compiled = compile(program);
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                return entry.program.copy();
+            }
+            int weight = weigh(compiled);
+            entries.put(key, new Entry(compiled, weight));
+            this.weight += weight;
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (this.weight > capacity && eldest.hasNext()) {
+                Entry evicted = eldest.next();
+                if (evicted.program == compiled) {
+                    break;
+                }
+                eldest.remove();
+                this.weight -= evicted.weight;
+                evictions++;
+            }
+        }
+        return compiled.copy();
+    }
+
+    /**
+     * Weight of a program in the cache: its instructions, counting nested ones, and the cells of its image.
+     */
+    static int weigh(@NotNull ProgramImage program) {
+        return Math.max(1, CostModel.size(program.residual) + program.cells.length);
+    }
+
+    @NotNull
+    private static ProgramImage compile(@NotNull String program) throws TimeoutException, InterruptedException {
+        Future<ProgramImage> compile = compiler.submit(() -> ProgramImage.of(Brainfuck.optimize(
+                new InstructionBlock(InstructionBlock.from(program).inst))));
+        try {
+            return compile.get(compileTimeout, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw (RuntimeException) e.getCause();
+        } finally {
+            compile.cancel(true);
+        }
+    }
+
+    private static void check(@NotNull String program) {
+        int depth = 0;
+        for (int i = 0; i < program.length(); i++) {
+            if (program.charAt(i) == '[') {
+                depth++;
+            } else if (program.charAt(i) == ']' && --depth < 0) {
+                throw new IllegalArgumentException("Unmatched ] at " + i);
+            }
+        }
+        if (depth != 0) {
+            throw new IllegalArgumentException("Unmatched [");
+        }
+    }
+
+    @NotNull
+    static String hash(@NotNull String program) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(program.getBytes(StandardCharsets.ISO_8859_1));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    synchronized long weight() {
+        return weight;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long hits() {
+        return hits;
+    }
+
+    synchronized long misses() {
+        return misses;
+    }
+
+    synchronized double hitRate() {
+        return hits + misses == 0 ? 0 : hits / (double) (hits + misses);
+    }
+
+    @NotNull
+    synchronized String report() {
+        return String.format("cache: %d programs, weight %d/%d, %d hits, %d misses (%.1f%%), %d evicted",
+                entries.size(), weight, capacity, hits, misses, 100 * hitRate(), evictions);
+    }
+}
@@ -0,0 +1,101 @@
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A program split into the tape its constant prologue leaves behind, the pointer it ends on, and the instructions that
+ * remain.
+ * <p>
+ * The tape starts zeroed, so every leading {@link Instruction.PureInstruction} and {@link Instruction.Shift} has a
+ * result known before the program runs. Those are folded into the image, which a new {@link State} gets in one bulk
+ * copy. Cells and the entry pointer are relative to the pointer the program starts on.
+ */
+final class ProgramImage {
+
+    @NotNull
+    final byte[] cells;
+    final int entry;
+    @NotNull
+    final InstructionBlock residual;
+
+    ProgramImage(@NotNull byte[] cells, int entry, @NotNull InstructionBlock residual) {
+        this.cells = cells;
+        this.entry = entry;
+        this.residual = residual;
+    }
+
+    /**
+     * Folds the constant prologue of an optimized program. Folding stops before an instruction that would touch a cell
+     * left of the start, so the residual program fails the way the original would.
+     */
+    @NotNull
+    static ProgramImage of(@NotNull InstructionBlock program) {
+        if (Brainfork.forks(program)) {
+            throw new IllegalArgumentException("a Brainfork program only runs in Brainfork.execute");
+        }
+        byte[] cells = new byte[16];
+        int length = 0;
+        int pointer = 0;
+        List<Instruction> residual = new ArrayList<>();
+        for (Instruction inst : program) {
+            if (!residual.isEmpty()) {
+                residual.add(inst);
+            } else if (inst instanceof Instruction.Shift) {
+                pointer += ((Instruction.Shift) inst).amount;
+            } else if (inst instanceof Instruction.PureInstruction) {
+                Footprint footprint = new Footprint();
+                footprint.pointer = pointer;
+                inst.footprint(footprint);
+                if (footprint.min() < 0) {
+                    residual.add(inst);
+                    continue;
+                }
+                if (footprint.max() >= cells.length) {
+                    cells = Arrays.copyOf(cells, Math.max(2 * cells.length, footprint.max() + 1));
+                }
+                ((Instruction.PureInstruction) inst).executeUnchecked(cells, pointer);
+                length = Math.max(length, footprint.writes.isEmpty() ? 0 : footprint.writes.last() + 1);
+            } else {
+                residual.add(inst);
+            }
+        }
+        return new ProgramImage(Arrays.copyOf(cells, length), pointer, new InstructionBlock(residual));
+    }
+
+    /**
+     * Copies the image onto a zeroed tape at the pointer and moves the pointer to the entry.
+     */
+    void load(@NotNull State state) {
+        state.tape.load(state.pointer, cells);
+        state.pointer += entry;
+    }
+
+    @NotNull
+    String execute(@NotNull State state) {
+        Events.Execute event = new Events.Execute();
+        event.engine = "interpreter";
+        event.begin();
+        try {
+            load(state);
+            return residual.execute(state);
+        } finally {
+            event.commit();
+        }
+    }
+
+    /**
+     * Copy to run on one thread while others run this one, see {@link Instruction#copy}. The cells are only read.
+     */
+    @NotNull
+    ProgramImage copy() {
+        return new ProgramImage(cells, entry, residual.copy());
+    }
+
+    @NotNull
+    @Override
+    public String toString() {
+        return "image " + Arrays.toString(cells) + ", entry " + entry + "\n" + residual;
+    }
+}
@@ -0,0 +1,265 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Long-running local server executing programs over HTTP.
+ * <p>
+ * {@code POST /run?input=...} takes the program source as the request body and streams its output back as it is
+ * produced. Each request gets its own {@link State}, and optimized programs are kept in a {@link ProgramCache}.
+ * {@code GET /stats} reports the cache hit rate and latency percentiles of recent runs.
+ * <p>
+ * A program that takes longer than {@link ProgramCache#compileTimeout} to optimize or {@link #runTimeout} to run is
+ * stopped. When it has not written anything yet the response is a 503; otherwise its output just ends.
+ */
+class ProgramServer {
+
+    static final int TAPE_SIZE = 1 << 24;
+    private static final int LATENCIES = 1024;
+
+    /**
+     * Milliseconds a program may run.
+     */
+    static long runTimeout = 60_000;
+
+    @NotNull
+    private final ProgramCache cache;
+    @NotNull
+    private final HttpServer server;
+    @NotNull
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "run timeouts");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long[] latencies = new long[LATENCIES];
+    private long runs = 0;
+    private long timeouts = 0;
+
+    ProgramServer(int port, int threads, long cacheCapacity) throws IOException {
+        cache = new ProgramCache(cacheCapacity);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/run", this::run);
+        server.createContext("/stats", this::stats);
+        server.setExecutor(Executors.newFixedThreadPool(threads));
+    }
+
+    void start() {
+        server.start();
+    }
+
+    void stop() {
+        server.stop(0);
+        timer.shutdownNow();
+    }
+
+    int port() {
+        return server.getAddress().getPort();
+    }
+
+    private void run(@NotNull HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, "POST the program source\n");
+                return;
+            }
+            long time = System.nanoTime();
+            String source = new String(readAll(exchange.getRequestBody()), StandardCharsets.ISO_8859_1);
+            String input = parameter(exchange.getRequestURI().getRawQuery(), "input");
+
+            ProgramImage program;
+            try {
+                program = cache.get(source);
+            } catch (IllegalArgumentException e) {
+                respond(exchange, 400, e.getMessage() + "\n");
+                return;
+            } catch (TimeoutException e) {
+                timedOut();
+                respond(exchange, 503, "optimizing took longer than " + ProgramCache.compileTimeout + "ms\n");
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                respond(exchange, 503, "interrupted\n");
+                return;
+            }
+
+            State state = new State(new Tape.Paged(TAPE_SIZE));
+            state.in = new ByteArrayInputStream(input == null ? new byte[0]
+                    : input.getBytes(StandardCharsets.ISO_8859_1));
+            Body body = new Body(exchange);
+            ScheduledFuture<?> timeout = timer.schedule(() -> state.cancelled = true, runTimeout, TimeUnit.MILLISECONDS);
+            try {
+                state.out = body;
+                program.execute(state);
+            } catch (CancellationException e) {
+                timedOut();
+                if (!body.started()) {
+                    respond(exchange, 503, "running took longer than " + runTimeout + "ms\n");
+                    return;
+                }
+            } finally {
+                timeout.cancel(false);
+            }
+            body.close();
+            record(System.nanoTime() - time);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Response body that sends the headers with the first output, so a run that is stopped before it writes anything
+     * still gets an error status.
+     */
+    private static final class Body extends OutputStream {
+        @NotNull
+        private final HttpExchange exchange;
+        @Nullable
+        private OutputStream out;
+
+        Body(@NotNull HttpExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        boolean started() {
+            return out != null;
+        }
+
+        @NotNull
+        private OutputStream out() throws IOException {
+            if (out == null) {
+                exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+                exchange.sendResponseHeaders(200, 0);
+                out = exchange.getResponseBody();
+            }
+            return out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out().write(b);
+        }
+
+        @Override
+        public void write(@NotNull byte[] b, int off, int len) throws IOException {
+            out().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (out != null) {
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out().close();
+        }
+    }
+
+    private void stats(@NotNull HttpExchange exchange) throws IOException {
+        try {
+            respond(exchange, 200, report() + "\n");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private synchronized void timedOut() {
+        timeouts++;
+    }
+
+    private synchronized void record(long nanos) {
+        latencies[(int) (runs % LATENCIES)] = nanos;
+        runs++;
+    }
+
+    /**
+     * Latency of the recent runs at the given percentile, in milliseconds.
+     */
+    synchronized double percentile(double percentile) {
+        int count = (int) Math.min(runs, LATENCIES);
+        if (count == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * count) - 1;
+        return sorted[Math.max(0, index)] / 1_000_000d;
+    }
+
+    @NotNull
+    synchronized String report() {
+        return String.format("%s%nruns: %d, p50 %.3fms, p90 %.3fms, p99 %.3fms, %d timed out", cache.report(), runs,
+                percentile(50), percentile(90), percentile(99), timeouts);
+    }
+
+    @NotNull
+    ProgramCache cache() {
+        return cache;
+    }
+
+    private static void respond(@NotNull HttpExchange exchange, int status, @NotNull String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.ISO_8859_1);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @NotNull
+    private static byte[] readAll(@NotNull InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Nullable
+    private static String parameter(@Nullable String query, @NotNull String name) throws UnsupportedEncodingException {
+        if (query == null) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            String key = equals < 0 ? pair : pair.substring(0, equals);
+            if (key.equals(name)) {
+                return equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), "ISO-8859-1");
+            }
+        }
+        return null;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        ProgramServer server = new ProgramServer(port, threads, 1 << 20);
+        server.start();
+        System.out.println("Listening on port " + server.port());
+    }
+}
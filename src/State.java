@@ -1,4 +1,12 @@
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CancellationException;
 
 /**
  * Created by stjjensen1 on 5/16/2016.
@@ -6,10 +14,84 @@ import org.jetbrains.annotations.NotNull;
 class State {
 
     @NotNull
-    final byte[] tape;
+    final Tape tape;
     int pointer = 0;
 
+    @NotNull
+    InputStream in = System.in;
+    /**
+     * Stream output is written to as it is produced, or null to return it from {@link Instruction#execute}.
+     */
+    @Nullable
+    OutputStream out;
+    /**
+     * Profile counting loop iterations, or null when not profiling.
+     */
+    @Nullable
+    Profile profile;
+    /**
+     * Set from another thread to stop the program at the next back-edge of a loop, see {@link #checkCancelled}.
+     */
+    volatile boolean cancelled = false;
+    /**
+     * State this one runs part of the program for, whose cancellation also stops this one.
+     */
+    @Nullable
+    State parent;
+    /**
+     * Values of the {@link Instruction.BasicBlock} being run, so that running one allocates nothing.
+     */
+    @NotNull
+    private byte[] scratch = new byte[0];
+
     State(int size) {
-        tape = new byte[size];
+        this(new Tape.Flat(size));
+    }
+
+    State(@NotNull Tape tape) {
+        this.tape = tape;
+    }
+
+    /**
+     * Writes output to {@link #out} when there is one.
+     *
+     * @return the output still to be returned by the instruction
+     */
+    @NotNull
+    String emit(@NotNull String output) {
+        if (out == null) {
+            return output;
+        }
+        try {
+            out.write(output.getBytes(StandardCharsets.ISO_8859_1));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return "";
+    }
+
+    /**
+     * @return an array of at least {@code length} bytes, shared by everything run on this state
+     */
+    @NotNull
+    byte[] scratch(int length) {
+        if (scratch.length < length) {
+            scratch = new byte[length];
+        }
+        return scratch;
+    }
+
+    /**
+     * Called by loops on every back-edge.
+     *
+     * @throws CancellationException when the program was {@link #cancelled}, here or on a {@link #parent}
+     */
+    void checkCancelled() {
+        if (cancelled) {
+            throw new CancellationException("program cancelled");
+        }
+        if (parent != null) {
+            parent.checkCancelled();
+        }
     }
 }
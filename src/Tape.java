@@ -0,0 +1,437 @@
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Storage for the cells of a {@link State}.
+ */
+abstract class Tape {
+
+    abstract byte get(int index);
+
+    abstract void set(int index, byte value);
+
+    abstract int size();
+
+    /**
+     * Copies cells onto the tape starting at {@code at}.
+     */
+    void load(int at, @NotNull byte[] cells) {
+        for (int i = 0; i < cells.length; i++) {
+            set(at + i, cells[i]);
+        }
+    }
+
+    /**
+     * Sets the cells from {@code from} inclusive to {@code to} exclusive.
+     */
+    void fill(int from, int to, byte value) {
+        for (int i = from; i < to; i++) {
+            set(i, value);
+        }
+    }
+
+    /**
+     * Array storing every cell from {@code from} to {@code to} inclusive for reading and writing, with cell {@code i}
+     * at index {@code i - base(from)}, or null when those cells are off the tape or not in one array.
+     *
+     * @throws UnsupportedOperationException when the cells are not on the {@link #heap}
+     */
+    @Nullable
+    abstract byte[] array(int from, int to);
+
+    /**
+     * Like {@link #array}, for callers that only read the cells. The array may be shared and must not be written.
+     */
+    @Nullable
+    byte[] read(int from, int to) {
+        return array(from, to);
+    }
+
+    /**
+     * Whether the cells are stored in heap arrays that {@link #array} hands out. Callers check this first.
+     */
+    boolean heap() {
+        return true;
+    }
+
+    abstract int base(int from);
+
+    /**
+     * One heap array for the whole tape.
+     */
+    static final class Flat extends Tape {
+        @NotNull
+        private final byte[] cells;
+
+        Flat(int size) {
+            cells = new byte[size];
+        }
+
+        @Override
+        byte get(int index) {
+            return cells[index];
+        }
+
+        @Override
+        void set(int index, byte value) {
+            cells[index] = value;
+        }
+
+        @Override
+        int size() {
+            return cells.length;
+        }
+
+        @Override
+        void load(int at, @NotNull byte[] cells) {
+            System.arraycopy(cells, 0, this.cells, at, cells.length);
+        }
+
+        @Override
+        void fill(int from, int to, byte value) {
+            Arrays.fill(cells, from, to, value);
+        }
+
+        @Nullable
+        @Override
+        byte[] array(int from, int to) {
+            return from < 0 || to >= cells.length ? null : cells;
+        }
+
+        @Override
+        int base(int from) {
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return Arrays.toString(cells);
+        }
+    }
+
+    static final int PAGE_BITS = 12;
+    static final int PAGE_SIZE = 1 << PAGE_BITS;
+    static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private static int pages(int size) {
+        return (size + PAGE_MASK) >>> PAGE_BITS;
+    }
+
+    private static final byte[] ZEROS = new byte[PAGE_SIZE];
+
+    /**
+     * Heap pages allocated on the first write. Reads from a page that was never written return zero, and the page
+     * used last is kept at hand so sequential access does not go through the page table.
+     * <p>
+     * A {@link #fork} shares the pages of the tape, and either side copies a shared page before writing it.
+     */
+    static final class Paged extends Tape {
+        @NotNull
+        private final byte[][] pages;
+        /**
+         * Whether a page belongs to this tape alone, so it may be written in place.
+         */
+        @NotNull
+        private final boolean[] owned;
+        private int cachedIndex = -1;
+        @Nullable
+        private byte[] cachedPage;
+        private boolean cachedOwned;
+        /**
+         * Pages the tape and its forks may still allocate or copy, or null for no limit.
+         */
+        @Nullable
+        private AtomicLong budget;
+
+        /**
+         * @param size number of cells, rounded up to a whole number of pages
+         */
+        Paged(int size) {
+            this(new byte[pages(size)][], null);
+        }
+
+        private Paged(@NotNull byte[][] pages, @Nullable AtomicLong budget) {
+            this.pages = pages;
+            this.owned = new boolean[pages.length];
+            this.budget = budget;
+        }
+
+        /**
+         * Copy of the tape that shares its pages and its budget.
+         */
+        @NotNull
+        Paged fork() {
+            Paged fork = new Paged(pages.clone(), budget);
+            Arrays.fill(owned, false);
+            cachedOwned = false;
+            return fork;
+        }
+
+        void budget(@Nullable AtomicLong pages) {
+            budget = pages;
+        }
+
+        @Override
+        byte get(int index) {
+            if (index >>> PAGE_BITS == cachedIndex) {
+                return cachedPage[index & PAGE_MASK];
+            }
+            byte[] page = pages[index >> PAGE_BITS];
+            if (page == null) {
+                return 0;
+            }
+            cachedIndex = index >>> PAGE_BITS;
+            cachedPage = page;
+            cachedOwned = owned[cachedIndex];
+            return page[index & PAGE_MASK];
+        }
+
+        @Override
+        void set(int index, byte value) {
+            if (index >>> PAGE_BITS == cachedIndex && cachedOwned) {
+                cachedPage[index & PAGE_MASK] = value;
+            } else {
+                page(index >> PAGE_BITS)[index & PAGE_MASK] = value;
+            }
+        }
+
+        @NotNull
+        private byte[] page(int pageIndex) {
+            byte[] page = pages[pageIndex];
+            if (page == null || !owned[pageIndex]) {
+                if (budget != null && budget.decrementAndGet() < 0) {
+                    throw new IllegalStateException("tape memory limit exceeded");
+                }
+                page = page == null ? new byte[PAGE_SIZE] : page.clone();
+                pages[pageIndex] = page;
+                owned[pageIndex] = true;
+            }
+            cachedIndex = pageIndex;
+            cachedPage = page;
+            cachedOwned = true;
+            return page;
+        }
+
+        @Override
+        int size() {
+            return pages.length << PAGE_BITS;
+        }
+
+        @Override
+        void load(int at, @NotNull byte[] cells) {
+            int from = 0;
+            while (from < cells.length) {
+                int index = at + from;
+                int length = Math.min(cells.length - from, PAGE_SIZE - (index & PAGE_MASK));
+                System.arraycopy(cells, from, page(index >> PAGE_BITS), index & PAGE_MASK, length);
+                from += length;
+            }
+        }
+
+        /**
+         * Fills page by page, leaving untouched pages out when filling with zero.
+         */
+        @Override
+        void fill(int from, int to, byte value) {
+            while (from < to) {
+                int end = Math.min(to, (from | PAGE_MASK) + 1);
+                if (value != 0 || pages[from >> PAGE_BITS] != null) {
+                    Arrays.fill(page(from >> PAGE_BITS), from & PAGE_MASK, ((end - 1) & PAGE_MASK) + 1, value);
+                }
+                from = end;
+            }
+        }
+
+        /**
+         * Takes the page for writing, allocating it when it was never written and copying it when it is shared.
+         */
+        @Nullable
+        @Override
+        byte[] array(int from, int to) {
+            if (from >>> PAGE_BITS != to >>> PAGE_BITS || from < 0 || to >= size()) {
+                return null;
+            }
+            return page(from >> PAGE_BITS);
+        }
+
+        /**
+         * Hands out the page as it is, so reading neither allocates a page never written nor copies a shared one.
+         */
+        @Nullable
+        @Override
+        byte[] read(int from, int to) {
+            if (from >>> PAGE_BITS != to >>> PAGE_BITS || from < 0 || to >= size()) {
+                return null;
+            }
+            byte[] page = pages[from >> PAGE_BITS];
+            return page == null ? ZEROS : page;
+        }
+
+        @Override
+        int base(int from) {
+            return from & ~PAGE_MASK;
+        }
+
+        /**
+         * Number of pages written so far.
+         */
+        int materialized() {
+            int count = 0;
+            for (byte[] page : pages) {
+                if (page != null) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Cells mapped from a sparse temporary file on the first write, keeping large tapes off the heap. The file is
+     * mapped in chunks of {@link #CHUNK_SIZE} cells, so even a large tape needs only a few mappings.
+     * <p>
+     * Closing the tape drops the mappings, which the JVM unmaps once they are collected, and deletes the file. The
+     * cells are not on the {@link #heap}, so pure loops on this tape run checked.
+     */
+    static final class Mapped extends Tape implements Closeable {
+        static final int CHUNK_BITS = 24;
+        static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+        private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+        @NotNull
+        private final MappedByteBuffer[] chunks;
+        private final int size;
+        @NotNull
+        private final File temp;
+        @NotNull
+        private final RandomAccessFile file;
+        @NotNull
+        private final FileChannel channel;
+        private int cachedIndex = -1;
+        @Nullable
+        private MappedByteBuffer cachedChunk;
+
+        /**
+         * @param size number of cells, rounded up to a whole number of pages
+         */
+        Mapped(int size) throws IOException {
+            this.size = pages(size) << PAGE_BITS;
+            chunks = new MappedByteBuffer[(int) (((long) this.size + CHUNK_MASK) >>> CHUNK_BITS)];
+            temp = File.createTempFile("tape", ".bin");
+            temp.deleteOnExit();
+            file = new RandomAccessFile(temp, "rw");
+            file.setLength(this.size);
+            channel = file.getChannel();
+        }
+
+        @Override
+        byte get(int index) {
+            if (index >>> CHUNK_BITS == cachedIndex) {
+                return cachedChunk.get(index & CHUNK_MASK);
+            }
+            MappedByteBuffer chunk = chunks[index >> CHUNK_BITS];
+            if (chunk == null) {
+                return 0;
+            }
+            cachedIndex = index >>> CHUNK_BITS;
+            cachedChunk = chunk;
+            return chunk.get(index & CHUNK_MASK);
+        }
+
+        @Override
+        void set(int index, byte value) {
+            if (index >>> CHUNK_BITS == cachedIndex) {
+                cachedChunk.put(index & CHUNK_MASK, value);
+            } else {
+                chunk(index >> CHUNK_BITS).put(index & CHUNK_MASK, value);
+            }
+        }
+
+        @NotNull
+        private MappedByteBuffer chunk(int chunkIndex) {
+            MappedByteBuffer chunk = chunks[chunkIndex];
+            if (chunk == null) {
+                long start = (long) chunkIndex << CHUNK_BITS;
+                try {
+                    chunk = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(CHUNK_SIZE, size - start));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                chunks[chunkIndex] = chunk;
+            }
+            cachedIndex = chunkIndex;
+            cachedChunk = chunk;
+            return chunk;
+        }
+
+        @Override
+        int size() {
+            return size;
+        }
+
+        /**
+         * The temporary file the cells are mapped from.
+         */
+        @NotNull
+        File file() {
+            return temp;
+        }
+
+        /**
+         * Number of chunks mapped so far.
+         */
+        int mapped() {
+            int count = 0;
+            for (MappedByteBuffer chunk : chunks) {
+                if (chunk != null) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        @Override
+        boolean heap() {
+            return false;
+        }
+
+        /**
+         * @throws UnsupportedOperationException always, since the cells are not on the heap
+         */
+        @Nullable
+        @Override
+        byte[] array(int from, int to) {
+            throw new UnsupportedOperationException("a mapped tape has no heap arrays");
+        }
+
+        @Override
+        int base(int from) {
+            return 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            Arrays.fill(chunks, null);
+            cachedIndex = -1;
+            cachedChunk = null;
+            channel.close();
+            file.close();
+            try {
+                Files.deleteIfExists(temp.toPath());
+            } catch (IOException e) {
+                // a file still mapped cannot be deleted on some platforms, so it goes on exit
+            }
+        }
+    }
+}
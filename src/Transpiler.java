@@ -0,0 +1,346 @@
+import org.jetbrains.annotations.NotNull;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Backend rendering an optimized program as a Java class and compiling it with the system Java compiler.
+ * <p>
+ * The generated class works on the cells of a flat tape as a local {@code byte[]}. Every loop becomes a method of its
+ * own and long instruction sequences are split into parts, which keeps methods under the size limit of the class file
+ * format and small enough for the JIT. Output known at compile time is written as byte array constants. The source, the
+ * class files and the {@link ProgramImage} of the program stay in {@link #cacheDirectory}, named after the hash of the
+ * program source and the {@link #FORMAT} of the generated code, so a later run of the same source loads them without
+ * optimizing or compiling again.
+ */
+final class Transpiler {
+
+    static Path cacheDirectory = Paths.get(System.getProperty("java.io.tmpdir"), "brainfuck-classes");
+
+    /**
+     * Version of the generated code, raised whenever it changes so classes cached by an older version are not loaded.
+     */
+    static final int FORMAT = 2;
+
+    /**
+     * Instructions emitted into one method before the rest is split off.
+     */
+    static final int CHUNK = 1000;
+
+    /**
+     * Loads every generated class, so a class is defined once however often its program is compiled. A class name
+     * always stands for the same code, since it carries the hash of the program and the format.
+     */
+    private static final Loader loader = new Loader();
+
+    /**
+     * A compiled program.
+     */
+    static final class Compiled {
+        @NotNull
+        final String name;
+        @NotNull
+        private final MethodHandle run;
+        @NotNull
+        private final byte[] image;
+        private final int entry;
+
+        private Compiled(@NotNull String name, @NotNull MethodHandle run, @NotNull byte[] image, int entry) {
+            this.name = name;
+            this.run = run;
+            this.image = image;
+            this.entry = entry;
+        }
+
+        /**
+         * Loads the initial tape image and runs the program on the state, which needs a zeroed flat tape.
+         *
+         * @return the output, unless the state has an output stream
+         */
+        @NotNull
+        String execute(@NotNull State state) {
+            byte[] cells = state.tape.heap() ? state.tape.array(0, state.tape.size() - 1) : null;
+            if (cells == null || state.tape.base(0) != 0) {
+                throw new IllegalArgumentException("Compiled programs run on a flat tape");
+            }
+            OutputStream out = state.out != null ? state.out : new ByteArrayOutputStream();
+            state.tape.load(state.pointer, image);
+            state.pointer += entry;
+            Events.Execute event = new Events.Execute();
+            event.engine = "compiled";
+            event.begin();
+            try {
+                state.pointer = (int) run.invokeExact(cells, state.pointer, state.in, out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            } finally {
+                event.commit();
+            }
+            return state.out != null ? "" : new String(((ByteArrayOutputStream) out).toByteArray(),
+                    StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    /**
+     * Source of the class being generated, which instructions append themselves to.
+     */
+    static final class Source {
+        private final List<StringBuilder> methods = new ArrayList<>();
+        private final Deque<StringBuilder> open = new ArrayDeque<>();
+        private final List<String> constants = new ArrayList<>();
+        private int indent = 2;
+
+        @NotNull
+        static String cell(int offset) {
+            return offset == 0 ? "t[p]" : offset > 0 ? "t[p + " + offset + "]" : "t[p - " + -offset + "]";
+        }
+
+        void line(@NotNull String code) {
+            StringBuilder method = open.peek();
+            for (int i = 0; i < indent; i++) {
+                method.append("    ");
+            }
+            method.append(code).append('\n');
+        }
+
+        /**
+         * Emits a block inline, splitting it into methods called in sequence when it is long.
+         */
+        void block(@NotNull InstructionBlock block) {
+            List<Instruction> instructions = new ArrayList<>();
+            block.forEach(instructions::add);
+            block(instructions);
+        }
+
+        private void block(@NotNull List<Instruction> instructions) {
+            if (instructions.size() <= CHUNK) {
+                for (Instruction inst : instructions) {
+                    inst.emit(this);
+                }
+                return;
+            }
+            for (int start = 0; start < instructions.size(); start += CHUNK) {
+                List<Instruction> part = instructions.subList(start, Math.min(start + CHUNK, instructions.size()));
+                String name = method(() -> block(part));
+                line("p = " + name + "(t, p, in, out);");
+            }
+        }
+
+        void conditional(int offset, @NotNull InstructionBlock block) {
+            line("if (" + cell(offset) + " != 0) {");
+            indent++;
+            block(block);
+            indent--;
+            line("}");
+        }
+
+        /**
+         * Emits a loop as a method of its own, entered with the pointer on its counter.
+         */
+        void loop(int offset, @NotNull InstructionBlock block) {
+            loop(offset, "while (t[p] != 0) {", block);
+        }
+
+        /**
+         * Emits a loop with a known trip count like {@link #loop}, counting its passes instead of testing the counter.
+         */
+        void repeat(int offset, int count, @NotNull InstructionBlock block) {
+            loop(offset, "for (int n = 0; n < " + count + "; n++) {", block);
+        }
+
+        private void loop(int offset, @NotNull String header, @NotNull InstructionBlock block) {
+            String name = method(() -> {
+                line(header);
+                indent++;
+                block(block);
+                indent--;
+                line("}");
+            });
+            line(offset == 0 ? "p = " + name + "(t, p, in, out);"
+                    : "p = " + name + "(t, p + " + offset + ", in, out) - " + offset + ";");
+        }
+
+        /**
+         * @return the name of a constant holding the bytes
+         */
+        @NotNull
+        String constant(@NotNull byte[] bytes) {
+            StringBuilder s = new StringBuilder("private static final byte[] C" + constants.size() + " = {");
+            for (int i = 0; i < bytes.length; i++) {
+                s.append(i == 0 ? "" : ", ").append(bytes[i]);
+            }
+            constants.add(s.append("};").toString());
+            return "C" + (constants.size() - 1);
+        }
+
+        @NotNull
+        private String method(@NotNull Runnable body) {
+            String name = "m" + methods.size();
+            StringBuilder method = new StringBuilder();
+            methods.add(method);
+            method.append("    private static int ").append(name)
+                    .append("(byte[] t, int p, InputStream in, OutputStream out) throws IOException {\n");
+            int outer = indent;
+            indent = 2;
+            open.push(method);
+            body.run();
+            line("return p;");
+            open.pop();
+            indent = outer;
+            method.append("    }\n");
+            return name;
+        }
+
+        @NotNull
+        String render(@NotNull String className, @NotNull InstructionBlock program) {
+            String entry = method(() -> block(program));
+            StringBuilder s = new StringBuilder();
+            s.append("import java.io.IOException;\n")
+                    .append("import java.io.InputStream;\n")
+                    .append("import java.io.OutputStream;\n\n")
+                    .append("public final class ").append(className).append(" {\n");
+            for (String constant : constants) {
+                s.append("    ").append(constant).append('\n');
+            }
+            s.append("\n    public static int run(byte[] t, int p, InputStream in, OutputStream out) throws IOException {\n")
+                    .append("        return ").append(entry).append("(t, p, in, out);\n")
+                    .append("    }\n");
+            for (StringBuilder method : methods) {
+                s.append('\n').append(method);
+            }
+            return s.append("}\n").toString();
+        }
+    }
+
+    private Transpiler() {
+    }
+
+    @NotNull
+    static String className(@NotNull String program) {
+        return "Program_" + FORMAT + "_" + ProgramCache.hash(program).substring(0, 16);
+    }
+
+    @NotNull
+    static String generate(@NotNull String className, @NotNull InstructionBlock program) {
+        if (Brainfork.forks(program)) {
+            throw new IllegalArgumentException("a Brainfork program cannot be transpiled");
+        }
+        return new Source().render(className, program);
+    }
+
+    /**
+     * Loads the compiled class of a program from the cache directory, or optimizes, generates and compiles it there
+     * first.
+     *
+     * @throws IllegalStateException when no Java compiler is available or the generated source does not compile
+     */
+    @NotNull
+    static Compiled compile(@NotNull String program) throws IOException {
+        program = program.replaceAll("[^.,\\[\\]<>+-]", "");
+        String className = className(program);
+        Path classFile = cacheDirectory.resolve(className + ".class");
+        Path imageFile = cacheDirectory.resolve(className + ".image");
+        if (!Files.exists(classFile) || !Files.exists(imageFile)) {
+            ProgramImage image = ProgramImage.of(Brainfuck.optimize(new InstructionBlock(
+                    InstructionBlock.from(program).inst)));
+            compile(className, generate(className, image.residual));
+            // another compile of the same program may be reading the image, so it only ever sees a whole one
+            Path temp = Files.createTempFile(cacheDirectory, className, ".image.tmp");
+            try {
+                try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temp))) {
+                    out.writeInt(image.entry);
+                    out.write(image.cells);
+                }
+                Files.move(temp, imageFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+        byte[] image = Files.readAllBytes(imageFile);
+        int entry = ByteBuffer.wrap(image).getInt();
+        return load(className, Arrays.copyOfRange(image, 4, image.length), entry);
+    }
+
+    private static void compile(@NotNull String className, @NotNull String source) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("No Java compiler available");
+        }
+        Files.createDirectories(cacheDirectory);
+        Path sourceFile = source(className);
+        Files.write(sourceFile, source.getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        int result = compiler.run(null, null, errors, "-nowarn", "-d", cacheDirectory.toString(),
+                sourceFile.toString());
+        if (result != 0) {
+            throw new IllegalStateException("Generated " + sourceFile + " does not compile:\n" + errors);
+        }
+    }
+
+    @NotNull
+    private static Compiled load(@NotNull String className, @NotNull byte[] image, int entry) {
+        try {
+            Class<?> compiled = Class.forName(className, true, loader);
+            MethodHandle run = MethodHandles.publicLookup().findStatic(compiled, "run",
+                    MethodType.methodType(int.class, byte[].class, int.class, InputStream.class, OutputStream.class));
+            return new Compiled(className, run, image, entry);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Defines generated classes from the class files in {@link #cacheDirectory}.
+     */
+    private static final class Loader extends ClassLoader {
+        static {
+            registerAsParallelCapable();
+        }
+
+        Loader() {
+            super(Transpiler.class.getClassLoader());
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            try {
+                byte[] bytes = Files.readAllBytes(cacheDirectory.resolve(name + ".class"));
+                return defineClass(name, bytes, 0, bytes.length);
+            } catch (IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+        }
+    }
+
+    /**
+     * Path of the generated source of a class, kept next to it for debugging.
+     */
+    @NotNull
+    static Path source(@NotNull String className) {
+        return cacheDirectory.resolve(className + ".java");
+    }
+}
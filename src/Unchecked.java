@@ -0,0 +1,57 @@
+import org.jetbrains.annotations.NotNull;
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Field;
+
+/**
+ * Tape access without the JVM's bounds check, for code whose window has already been checked against the tape.
+ * <p>
+ * This is the only class that touches {@link Unsafe}, so the compiler's warnings about internal API come from here
+ * alone and are accepted: the build targets Java 8, which has neither VarHandle views of byte arrays nor another way
+ * to read a word out of one. Callers go through these accessors, and only use the word ones when {@link #UNALIGNED}.
+ */
+final class Unchecked {
+
+    private static final Unsafe UNSAFE;
+    private static final long BASE;
+    /**
+     * Whether word accesses at any index are allowed, which is only known for some architectures.
+     */
+    static final boolean UNALIGNED = System.getProperty("os.arch").matches("amd64|x86_64|i386|x86|aarch64");
+
+    static {
+        try {
+            Field field = Unsafe.class.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            UNSAFE = (Unsafe) field.get(null);
+            BASE = UNSAFE.arrayBaseOffset(byte[].class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Unchecked() {
+    }
+
+    static byte get(@NotNull byte[] tape, int index) {
+        return UNSAFE.getByte(tape, BASE + index);
+    }
+
+    static void put(@NotNull byte[] tape, int index, byte value) {
+        UNSAFE.putByte(tape, BASE + index, value);
+    }
+
+    /**
+     * Reads eight cells as one word in native byte order. The index does not need to be aligned.
+     */
+    static long getLong(@NotNull byte[] tape, int index) {
+        return UNSAFE.getLong(tape, BASE + index);
+    }
+
+    /**
+     * Writes eight cells as one word in native byte order, see {@link #getLong}.
+     */
+    static void putLong(@NotNull byte[] tape, int index, long value) {
+        UNSAFE.putLong(tape, BASE + index, value);
+    }
+}
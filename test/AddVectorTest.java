@@ -0,0 +1,81 @@
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AddVectorTest {
+
+    @After
+    public void reset() {
+        Instruction.AddVector.swar = Unchecked.UNALIGNED;
+    }
+
+    private static InstructionBlock lowered(String program) {
+        InstructionBlock block = new InstructionBlock(InstructionBlock.from(program).inst);
+        while (block.optimize()) ;
+        Instruction.AddVector.lower(block);
+        return block;
+    }
+
+    @Test
+    public void packsAdjacentAdds() {
+        // the loop body adds to eleven cells, one of them twice, with a gap after the fourth
+        InstructionBlock block = lowered(",[>+>++>+++>->>+>+>+>+>+>+>+<<<<<<+<<<<<<--]");
+        String s = block.toString();
+        assertTrue(s, s.contains("add vector 0: -2 1 2 3 -1 0 2 1 1 1 1 1 1"));
+    }
+
+    @Test
+    public void keepsOrderAgainstDependentInstructions() {
+        // the inner loop moves cell 9 onto cell 2, and the add to cell 9 after it has to stay there
+        String program = ",[>+>+>+>+>+>+>+>+>[<<<<<<<+>>>>>>>-]+<<<<<<<<<-]";
+        InstructionBlock block = lowered(program);
+        State state = new State(100);
+        state.in = new ByteArrayInputStream(new byte[]{6});
+        block.execute(state);
+        State expected = new State(100);
+        expected.in = new ByteArrayInputStream(new byte[]{6});
+        new InstructionBlock(InstructionBlock.from(program).inst).execute(expected);
+        assertEquals(expected.tape.toString(), state.tape.toString());
+    }
+
+    @Test
+    public void nothingToPack() {
+        InstructionBlock block = lowered(",[>+>>>>+<<<<<-]");
+        assertFalse(block.toString().contains("vector"));
+    }
+
+    @Test
+    public void swarMatchesScalar() {
+        Random random = new Random(42);
+        for (int round = 0; round < 100; round++) {
+            byte[] amounts = new byte[8 + random.nextInt(20)];
+            random.nextBytes(amounts);
+            Instruction.AddVector vector = new Instruction.AddVector(3, amounts);
+            byte[] cells = new byte[40];
+            random.nextBytes(cells);
+            byte[] scalar = cells.clone();
+
+            Instruction.AddVector.swar = Unchecked.UNALIGNED;
+            vector.executeUnchecked(cells, 1);
+            Instruction.AddVector.swar = false;
+            vector.executeUnchecked(scalar, 1);
+            assertArrayEquals(scalar, cells);
+        }
+    }
+
+    @Test
+    public void pagedTapeFallsBackToScalar() {
+        byte[] amounts = {1, 2, 3, 4, 5, 6, 7, 8, 9};
+        Tape.Paged tape = new Tape.Paged(4 * Tape.PAGE_SIZE);
+        State state = new State(tape);
+        state.pointer = Tape.PAGE_SIZE - 4;
+        new Instruction.AddVector(0, amounts).execute(state);
+        for (int i = 0; i < amounts.length; i++) {
+            assertEquals(amounts[i], tape.get(Tape.PAGE_SIZE - 4 + i));
+        }
+    }
+}
@@ -0,0 +1,59 @@
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BasicBlockTest {
+
+    private static void assertLoweredMatches(String program, String input) {
+        InstructionBlock block = Programs.optimize(program);
+        assertTrue(block.toString(), block.toString().contains("block {"));
+        assertEquals(Programs.run(Programs.parse(program), new State(100), input),
+                Programs.run(block, new State(100), input));
+    }
+
+    @Test
+    public void reusesLoadedValues() {
+        // cell 0 is loaded once for the add to cell 0 and the copy to cell 2
+        String s = Programs.optimize(",>,<[->+>+<<]>[-<+>]<.>.>.").toString();
+        assertTrue(s, s.contains("v0 = [0]\n  v1 = [1]\n  v2 = v0 + v1 * 1"));
+        assertTrue(s, s.contains("[2] = v0"));
+    }
+
+    @Test
+    public void knownCellBecomesConstant() {
+        String s = Programs.optimize("+++>,[<+>-]<[>>+<<-]>>.").toString();
+        assertTrue(s, s.contains("v1 = 3"));
+        assertFalse(s, s.contains("= [0]"));
+    }
+
+    @Test
+    public void matchesUnlowered() {
+        assertLoweredMatches(",>,<[->+>+<<]>[-<+>]<.>.>.", "45");
+        assertLoweredMatches(",[>++>+++>+<<<-]>>>[<<+>>-]<.<.<.", "5");
+        assertLoweredMatches("+++>,[<+>-]<[>>+<<-]>>.", "8");
+    }
+
+    @Test
+    public void nestedBodiesAreNotShared() {
+        // unrolling the outer loop shares the inner bodies, which only the first copy may fold constants into
+        String program = "++[>+>,[>,[->>[-]<<<<[->>>+>+<<<<]>>>>[-<<<<+>>>>]<<]<-]<<-]>>>>.";
+        assertEquals(Programs.run(program, "\1\1\1\1"), Programs.run(Programs.optimize(program), "\1\1\1\1"));
+    }
+
+    @Test
+    public void pagedTapeFallsBack() {
+        // v0 = [0], v1 = [1], [0] = v0 + v1, [2] = v0
+        Instruction.BasicBlock block = new Instruction.BasicBlock(
+                new int[]{Instruction.BasicBlock.LOAD, Instruction.BasicBlock.LOAD, Instruction.BasicBlock.MULADD},
+                new int[]{0, 1, 0}, new int[]{0, 0, 1}, new byte[]{0, 0, 1}, new int[]{0, 2}, new int[]{2, 0});
+        Tape.Paged tape = new Tape.Paged(4 * Tape.PAGE_SIZE);
+        State state = new State(tape);
+        state.pointer = Tape.PAGE_SIZE - 1;
+        tape.set(Tape.PAGE_SIZE - 1, (byte) 5);
+        tape.set(Tape.PAGE_SIZE, (byte) 7);
+        block.execute(state);
+        assertEquals(12, tape.get(Tape.PAGE_SIZE - 1));
+        assertEquals(7, tape.get(Tape.PAGE_SIZE));
+        assertEquals(5, tape.get(Tape.PAGE_SIZE + 1));
+    }
+}
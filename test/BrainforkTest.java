@@ -0,0 +1,93 @@
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class BrainforkTest {
+
+    @After
+    public void reset() {
+        Brainfork.maxThreads = 1 << 12;
+        Brainfork.maxTapeBytes = 1L << 30;
+    }
+
+    private static String sorted(String output) {
+        char[] chars = output.toCharArray();
+        Arrays.sort(chars);
+        return new String(chars);
+    }
+
+    @Test
+    public void childGoesRightWithOne() {
+        // the parent prints '0' from cell 0, the child '1' from cell 1
+        String program = "Y>++++++[<++++++++>-]<.";
+        assertEquals("01", sorted(Brainfork.execute(Brainfork.parse(program), new State(new Tape.Paged(1 << 16)))));
+        assertEquals("01", sorted(Brainfork.execute(Brainfuck.optimize(Brainfork.parse(program)),
+                new State(new Tape.Paged(1 << 16)))));
+    }
+
+    @Test
+    public void childResumesInsideLoop() {
+        // both leave the loop on their own pointer, one cell apart
+        State state = new State(new Tape.Paged(1 << 16));
+        assertEquals("\u0000\u0001", sorted(Brainfork.execute(Brainfork.parse("+[Y>]<."), state)));
+        assertEquals(0, state.pointer);
+        assertEquals(0, state.tape.get(0));
+        assertEquals(0, state.tape.get(1));
+    }
+
+    private static boolean interleaves(String output, String a, String b) {
+        if (output.isEmpty()) {
+            return a.isEmpty() && b.isEmpty();
+        }
+        return !a.isEmpty() && a.charAt(0) == output.charAt(0) && interleaves(output.substring(1), a.substring(1), b)
+                || !b.isEmpty() && b.charAt(0) == output.charAt(0) && interleaves(output.substring(1), a, b.substring(1));
+    }
+
+    @Test
+    public void outputOfEachThreadStaysInOrder() {
+        // the parent counts up from '1', the child from '2'
+        State state = new State(new Tape.Paged(1 << 16));
+        state.out = new ByteArrayOutputStream();
+        assertEquals("", Brainfork.execute(Brainfork.parse("Y>+++++++[<+++++++>-]<.+.+."), state));
+        String output = state.out.toString();
+        assertTrue(output, interleaves(output, "123", "234"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void threadLimit() {
+        Brainfork.maxThreads = 1;
+        Brainfork.execute(Brainfork.parse("Y"), new State(new Tape.Paged(1 << 16)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void tapeMemoryLimit() {
+        // the root allocates the only page the budget allows, then both threads copy it on their next write
+        Brainfork.maxTapeBytes = Tape.PAGE_SIZE;
+        Brainfork.execute(Brainfork.parse("+Y"), new State(new Tape.Paged(1 << 16)));
+    }
+
+    @Test
+    public void forkIsOptIn() {
+        try {
+            InstructionBlock.from("+Y");
+            fail();
+        } catch (RuntimeException expected) {
+        }
+        assertFalse(Brainfork.forks(Brainfork.parse("+[>+<-]")));
+        assertTrue(Brainfork.forks(Brainfork.parse("+[>[Y]<-]")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void forksOnlyRunInBrainfork() {
+        ProgramImage.of(Brainfork.parse("+[Y]"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void forksAreNotTranspiled() {
+        Transpiler.generate("Forks", Brainfork.parse("+Y"));
+    }
+}
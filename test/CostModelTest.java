@@ -0,0 +1,56 @@
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CostModelTest {
+
+    @After
+    public void reset() {
+        CostModel.maxGrowth = 64;
+        CostModel.clear();
+    }
+
+    private static InstructionBlock parse(String program) {
+        return new InstructionBlock(InstructionBlock.from(program).inst);
+    }
+
+    @Test
+    public void sizeAndCost() {
+        InstructionBlock block = parse("+[>+<-].");
+        assertEquals(7, CostModel.size(block));
+        assertEquals(1 + (1 + CostModel.LOOP_TRIPS * 5) + 1, CostModel.cost(block), 0);
+    }
+
+    @Test
+    public void peelingWithinBudget() {
+        InstructionBlock optimized = Brainfuck.optimize(parse("+++[.-]"));
+        assertEquals(0, CostModel.rejected("peel"));
+        assertFalse(optimized.toString().contains("while"));
+    }
+
+    @Test
+    public void peelingRejected() {
+        CostModel.maxGrowth = 0;
+        InstructionBlock optimized = Brainfuck.optimize(parse("+++[.-]"));
+        assertTrue(CostModel.rejected("peel") > 0);
+        assertTrue(optimized.toString().contains("while"));
+        assertEquals("\u0003\u0002\u0001", optimized.execute(new State(10)));
+    }
+
+    @Test(timeout = 10000)
+    public void emptyLoopsAreNotPeeled() {
+        for (String program : new String[]{"+[]", "+[[]]", "[[<>]]", ">+[[<>].]"}) {
+            Brainfuck.optimize(parse(program));
+        }
+        assertEquals(0, CostModel.rejected("peel"));
+    }
+
+    @Test
+    public void peelingIsBounded() {
+        // the counter is never cleared, so every peeled copy could be peeled again
+        InstructionBlock optimized = Brainfuck.optimize(parse("+[>+<]"));
+        assertTrue(optimized.toString().contains("while"));
+        assertTrue(CostModel.rejected("peel") > 0);
+    }
+}
@@ -0,0 +1,40 @@
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DistributeTest {
+
+    @Test
+    public void copyLoopBecomesOneInstruction() {
+        InstructionBlock block = Programs.optimizeWithoutContext(",[->++>+++<<]>.>.");
+        assertEquals("read 0\ndistribute 0 -> 1*2, 2*3\nout 1\nout 2\nshift 2\n", block.toString());
+        assertEquals("\u0008\u000c", Programs.run(block, "\u0004"));
+    }
+
+    @Test
+    public void movingBackBecomesCopy() {
+        InstructionBlock block = Programs.optimizeWithoutContext(",[>+>+<<-]>>[<<+>>-]<<.>.");
+        assertEquals("read 0\ncopy 0, 1\ndistribute 2 -> 0\nout 0\nout 1\nshift 1\n", block.toString());
+        assertEquals("\u0005\u0005", Programs.run(block, "\u0005"));
+    }
+
+    @Test
+    public void movingBackFromClearedTarget() {
+        // the target is cleared first, so the source must not get its old value back
+        String program = ",>,[-]<[->+>+<<]>[-<+>]<.>>.";
+        assertEquals("\u0003\u0003", Programs.run(program, "\u0003\u0005"));
+        assertEquals("\u0003\u0003", Programs.run(Programs.optimizeWithoutContext(program), "\u0003\u0005"));
+        assertEquals("\u0003\u0003",
+                Programs.run(Brainfuck.optimize(Programs.optimizeWithoutContext(program)), "\u0003\u0005"));
+    }
+
+    @Test
+    public void zeroTargetIsOverwritten() {
+        InstructionBlock block = Brainfuck.optimize(Programs.optimizeWithoutContext(",>,<[->+<]>."));
+        assertTrue(block.toString().contains("distribute"));
+        assertEquals("\u0007", Programs.run(block, "\u0003\u0004"));
+        block = Brainfuck.optimize(Programs.optimizeWithoutContext(",>[-]<[->+<]>."));
+        assertTrue(block.toString().contains("=1"));
+        assertEquals("\u0003", Programs.run(block, "\u0003"));
+    }
+}
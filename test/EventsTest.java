@@ -0,0 +1,94 @@
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class EventsTest {
+
+    private static final String PROGRAM = ",[>+++[>++<-]<-]>>.";
+
+    @After
+    public void reset() {
+        Events.loopSampling = 1024;
+    }
+
+    private static List<RecordedEvent> record(Runnable run) throws Exception {
+        Path file = Files.createTempFile("events", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("brainfuck.Parse").withoutThreshold();
+            recording.enable("brainfuck.Optimize").withoutThreshold();
+            recording.enable("brainfuck.OptimizerPass").withoutThreshold();
+            recording.enable("brainfuck.Execute").withoutThreshold();
+            recording.enable("brainfuck.Loop").withoutThreshold();
+            recording.start();
+            run.run();
+            recording.stop();
+            recording.dump(file);
+            return RecordingFile.readAllEvents(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static List<RecordedEvent> named(List<RecordedEvent> events, String name) {
+        return events.stream().filter(e -> e.getEventType().getName().equals(name)).collect(Collectors.toList());
+    }
+
+    @Test
+    public void phasesAreRecorded() throws Exception {
+        List<RecordedEvent> events = record(() -> {
+            InstructionBlock block = Brainfuck.optimize(new InstructionBlock(InstructionBlock.from(PROGRAM).inst));
+            State state = new State(100);
+            state.in = new ByteArrayInputStream(new byte[]{5});
+            ProgramImage.of(block).execute(state);
+        });
+        List<RecordedEvent> parse = named(events, "brainfuck.Parse");
+        assertEquals(1, parse.size());
+        assertEquals(PROGRAM.length(), parse.get(0).getInt("length"));
+        assertEquals(17, parse.get(0).getInt("instructions"));
+
+        List<RecordedEvent> optimize = named(events, "brainfuck.Optimize");
+        assertEquals(1, optimize.size());
+        assertEquals(17, optimize.get(0).getInt("sizeBefore"));
+        assertTrue(optimize.get(0).getLong("rewrites") > 0);
+
+        List<String> passes = named(events, "brainfuck.OptimizerPass").stream().map(e -> e.getString("pass"))
+                .collect(Collectors.toList());
+        assertEquals(passes.size(), optimize.get(0).getInt("passes"));
+        assertEquals("context free", passes.get(0));
+        assertTrue(passes.toString(), passes.containsAll(Arrays.asList("zero tape", "add vectors",
+                "basic blocks", "parallel")));
+        assertEquals(optimize.get(0).getLong("rewrites"), named(events, "brainfuck.OptimizerPass").stream()
+                .mapToLong(e -> e.getLong("rewrites")).sum());
+
+        List<RecordedEvent> execute = named(events, "brainfuck.Execute");
+        assertEquals(1, execute.size());
+        assertEquals("interpreter", execute.get(0).getString("engine"));
+    }
+
+    @Test
+    public void loopsAreSampled() throws Exception {
+        InstructionBlock block = new InstructionBlock(InstructionBlock.from("++++++++[>++++++++[>+<-]<-]").inst);
+        Events.loopSampling = 1;
+        List<RecordedEvent> loops = named(record(() -> block.execute(new State(10))), "brainfuck.Loop");
+        // one outer and eight inner runs
+        assertEquals(9, loops.size());
+        for (RecordedEvent loop : loops) {
+            assertTrue(loop.getString("loop"), loop.getString("loop").startsWith("while 0 {; "));
+        }
+
+        Events.loopSampling = 4;
+        loops = named(record(() -> block.execute(new State(10))), "brainfuck.Loop");
+        assertTrue(loops.size() >= 2 && loops.size() <= 3);
+    }
+}
@@ -0,0 +1,43 @@
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FillTest {
+
+    @Test
+    public void clearLoopsFuse() {
+        InstructionBlock block = Programs.optimizeWithoutContext(",[>[-]>[-]>[-]<<<.]");
+        assertTrue(block.toString().contains("fill 0, 1..3\n"));
+        assertFalse(block.toString().contains("set"));
+    }
+
+    @Test
+    public void stridedSetsFuse() {
+        InstructionBlock block = Programs.optimizeWithoutContext(",[>>[-]>>[-]>>[-]<<<<<<.]");
+        assertTrue(block.toString().contains("fill 0, 2..6 by 2\n"));
+    }
+
+    @Test
+    public void fillIsConstant() {
+        InstructionBlock block = Programs.optimizeWithoutContext(",[>[-]>[-]>[-]>[-]<<<<.]");
+        Instruction.WhileLoop loop = (Instruction.WhileLoop) block.last.instruction;
+        for (int cell = 1; cell <= 4; cell++) {
+            assertTrue(loop.block.guarantees(cell, i -> new Guarantee.Unknown(loop.block, i)).equalsValue(0));
+            assertTrue(loop.block.first.instruction.ignores(loop.block.first, cell, i -> false));
+        }
+        assertFalse(loop.block.guarantees(5, i -> new Guarantee.Unknown(loop.block, i)).equalsValue(0));
+    }
+
+    @Test
+    public void pagedFill() {
+        Tape.Paged tape = new Tape.Paged(4 * Tape.PAGE_SIZE);
+        tape.fill(0, 2 * Tape.PAGE_SIZE, (byte) 0);
+        assertEquals(0, tape.materialized());
+        tape.fill(Tape.PAGE_SIZE - 2, Tape.PAGE_SIZE + 2, (byte) 9);
+        assertEquals(2, tape.materialized());
+        assertEquals(0, tape.get(Tape.PAGE_SIZE - 3));
+        assertEquals(9, tape.get(Tape.PAGE_SIZE - 2));
+        assertEquals(9, tape.get(Tape.PAGE_SIZE + 1));
+        assertEquals(0, tape.get(Tape.PAGE_SIZE + 2));
+    }
+}
@@ -0,0 +1,24 @@
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FootprintTest {
+
+    @Test
+    public void balanced() {
+        Footprint footprint = new InstructionBlock(InstructionBlock.from(">+<[->>+<<]").inst).footprint();
+        assertTrue(footprint.bounded);
+        assertFalse(footprint.io);
+        assertEquals(0, footprint.min());
+        assertEquals(2, footprint.max());
+        assertTrue(footprint.writes.contains(1));
+        assertFalse(footprint.writes.contains(3));
+    }
+
+    @Test
+    public void unbalanced() {
+        Footprint footprint = new InstructionBlock(InstructionBlock.from("+[>.]").inst).footprint();
+        assertFalse(footprint.bounded);
+        assertTrue(footprint.io);
+    }
+}
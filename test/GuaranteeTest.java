@@ -30,4 +30,31 @@ public class GuaranteeTest {
 
     }
 
-}
\ No newline at end of file
+    @Test
+    public void range() throws Exception {
+        Guarantee range = new Guarantee.Unknown(this, 0).conditional(Guarantee.constant(3), Guarantee.constant(5))
+                .plus(Guarantee.constant(1));
+        assertEquals(4, range.lower());
+        assertEquals(6, range.upper());
+        assertTrue(range.inequalsValue(0));
+        assertTrue(range.inequalsValue(5));
+        assertFalse(range.inequalsValue(6));
+        assertFalse(new Guarantee.Unknown(this, 0).plus(Guarantee.constant(1)).inequalsValue(0));
+    }
+
+    @Test
+    public void knownBits() throws Exception {
+        Guarantee even = new Guarantee.Unknown(this, 0).times(2);
+        assertTrue(even.inequalsValue(1));
+        assertFalse(even.inequalsValue(0));
+        assertTrue(even.plus(Guarantee.constant(1)).inequalsValue(0));
+        assertTrue(even.times(4).plus(Guarantee.constant(4)).inequalsValue(0));
+    }
+
+    @Test
+    public void constantOutputIsUnsigned() throws Exception {
+        String program = new String(new char[200]).replace('\0', '+') + ".";
+        InstructionBlock block = Brainfuck.optimize(new InstructionBlock(InstructionBlock.from(program).inst));
+        assertEquals("\u00c8", block.execute(new State(10)));
+    }
+}
@@ -0,0 +1,55 @@
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HoistTest {
+
+    @After
+    public void reset() {
+        CostModel.maxGrowth = 64;
+        CostModel.clear();
+    }
+
+    @Test
+    public void invariantSetMovesBeforeLoop() {
+        String program = ",>,<[>>[-]+++<<.-]>>.";
+        InstructionBlock block = Programs.optimize(program);
+        assertEquals("read 0\nread 1\nif 0 {\n  set 3, >2\n}\nwhile 0 {\n  out 0\n  sub 1\n}\nout 2\nshift 2\n",
+                block.toString());
+        assertEquals(Programs.run(program, "ab"), Programs.run(block, "ab"));
+        assertEquals(Programs.run(program, "\0b"), Programs.run(block, "\0b"));
+    }
+
+    @Test
+    public void setReadEarlierInBodyStays() {
+        String program = ",>,<[>>.[-]+++<<-]>>.";
+        InstructionBlock block = Programs.optimize(program);
+        assertFalse(block.toString(), block.toString().contains("if 0"));
+        assertEquals(Programs.run(program, "ab"), Programs.run(block, "ab"));
+    }
+
+    @Test
+    public void hoistsPastIo() {
+        String program = ",[>[-]+++>,.<<-]>.";
+        InstructionBlock block = Programs.optimize(program);
+        assertTrue(block.toString(), block.toString().startsWith("read 0\nif 0 {\n  set 3, >1\n}\nwhile 0 {"));
+        assertEquals(Programs.run(program, "\u0002xy"), Programs.run(block, "\u0002xy"));
+    }
+
+    @Test
+    public void setOfChangedCellStays() {
+        String program = ",[>[-]+++>,[<+>-]<.<-]>.";
+        InstructionBlock block = Programs.optimize(program);
+        assertFalse(block.toString(), block.toString().contains("if 0"));
+        assertEquals(Programs.run(program, "\u0002xy"), Programs.run(block, "\u0002xy"));
+    }
+
+    @Test
+    public void rejectedByCostModel() {
+        CostModel.maxGrowth = 0;
+        InstructionBlock block = Programs.optimize(",>,<[>>[-]+++<<.-]>>.");
+        assertTrue(CostModel.rejected("hoist") > 0);
+        assertTrue(block.toString(), block.toString().contains("set 3, >2\n  out 0"));
+    }
+}
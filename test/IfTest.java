@@ -1,3 +1,8 @@
+import org.junit.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
 import static org.junit.Assert.*;
 
 /**
@@ -5,4 +10,34 @@ import static org.junit.Assert.*;
  */
 public class IfTest {
 
-}
\ No newline at end of file
+    private static List<Instruction.If> ifs(InstructionBlock block) {
+        return Programs.instructions(block).stream().filter(inst -> inst instanceof Instruction.If)
+                .map(inst -> (Instruction.If) inst).collect(Collectors.toList());
+    }
+
+    @Test
+    public void ifsOnSameCellAreFused() {
+        // the copy loop leaves one if per set in its body
+        String program = ",[>[-]+>+>[-]++<<<-]>.>.>.";
+        InstructionBlock block = Programs.optimize(program);
+        List<Instruction.If> ifs = ifs(block);
+        assertEquals(block.toString(), 1, ifs.size());
+        List<Instruction> body = Programs.instructions(ifs.get(0).block);
+        assertEquals(2, body.size());
+        assertTrue(body.stream().allMatch(inst -> inst instanceof Instruction.SetValue));
+        List<Instruction> instructions = Programs.instructions(block);
+        assertTrue(instructions.get(instructions.indexOf(ifs.get(0)) + 1) instanceof Instruction.Distribute);
+        assertEquals(Programs.run(program, "a"), Programs.run(block, "a"));
+        assertEquals(Programs.run(program, "\0"), Programs.run(block, "\0"));
+    }
+
+    @Test
+    public void conditionWrittenInBetween() {
+        // the first if clears its own condition, so the second one never runs after it
+        String program = ",[>+.<[-]]>>,<<[>.<[-]]";
+        InstructionBlock block = Programs.optimize(program);
+        assertEquals(block.toString(), 1, ifs(block).size());
+        assertEquals(Programs.run(program, "ab"), Programs.run(block, "ab"));
+        assertEquals(Programs.run(program, "\0b"), Programs.run(block, "\0b"));
+    }
+}
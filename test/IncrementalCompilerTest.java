@@ -0,0 +1,78 @@
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class IncrementalCompilerTest {
+
+    private static final String HELLO = "++++++++[>++++[>++>+++>+++>+<<<<-]>+>+>->>+[<]<-]>>.>---.+++++++..+++.>>.<-.<.+++.---" +
+            "---.--------.>>+.>++.";
+
+    @Test
+    public void reusesUnchangedLoops() {
+        IncrementalCompiler compiler = new IncrementalCompiler();
+        compiler.compile(HELLO);
+        assertEquals(3, compiler.optimized);
+
+        String edited = HELLO.replace(">>+.>++.", ">>+.>+++.");
+        InstructionBlock block = compiler.compile(edited);
+        assertEquals(0, compiler.optimized);
+        assertEquals(1, compiler.reused);
+        assertEquals(1, compiler.regionsOptimized);
+        assertEquals(1, compiler.regionsReused);
+
+        InstructionBlock full = Brainfuck.optimize(new InstructionBlock(InstructionBlock.from(edited).inst));
+        assertEquals(full.execute(new State(100)), block.execute(new State(100)));
+    }
+
+    @Test
+    public void reoptimizesEnclosingLoops() {
+        IncrementalCompiler compiler = new IncrementalCompiler();
+        compiler.compile(HELLO);
+
+        String edited = HELLO.replace(">+++>+<<<<-]", ">++++>+<<<<-]");
+        InstructionBlock block = compiler.compile(edited);
+        assertEquals(2, compiler.optimized);
+        assertEquals(1, compiler.reused);
+
+        InstructionBlock full = Brainfuck.optimize(new InstructionBlock(InstructionBlock.from(edited).inst));
+        assertEquals(full.execute(new State(100)), block.execute(new State(100)));
+    }
+
+    @Test
+    public void reoptimizesRegionsWhoseGuaranteesChanged() {
+        IncrementalCompiler compiler = new IncrementalCompiler();
+        compiler.compile(",[-]>+++[<+++>-]<.");
+        assertEquals(3, compiler.regionsOptimized);
+
+        // the first loop still leaves its cell zero, so the regions after it rely on the same
+        String output = ",.[-]>+++[<+++>-]<.";
+        InstructionBlock block = compiler.compile(output);
+        assertEquals(1, compiler.regionsOptimized);
+        assertEquals(2, compiler.regionsReused);
+        assertEquals(Programs.run(output, "a"), Programs.run(block, "a"));
+
+        String set = ",[-]+>+++[<+++>-]<.";
+        block = compiler.compile(set);
+        assertEquals(3, compiler.regionsOptimized);
+        assertEquals("\n", Programs.run(block, "a"));
+    }
+
+    @Test
+    public void versionsShareNoLoops() {
+        // instructions without state may be shared, but loops keep caches and rewrite themselves when hot
+        String program = ",[.-]>+.";
+        IncrementalCompiler compiler = new IncrementalCompiler();
+        Instruction first = loop(compiler.compile(program));
+        Instruction second = loop(compiler.compile(program));
+        assertNotSame(first, second);
+        InstructionBlock edited = compiler.compile(program + ".");
+        assertEquals(1, compiler.regionsReused);
+        assertNotSame(second, loop(edited));
+        assertEquals(Programs.run(program + ".", "\u0003"), Programs.run(edited, "\u0003"));
+    }
+
+    private static Instruction loop(InstructionBlock block) {
+        return Programs.instructions(block).stream().filter(inst -> inst instanceof Instruction.Control).findFirst()
+                .orElseThrow(() -> new AssertionError(block.toString()));
+    }
+}
@@ -26,7 +26,6 @@ public class InstructionBlockTest {
 
         while ((optimized = block.optimized(b -> i -> Guarantee.constant(0), i -> true)) != null) {
             block = optimized;
-            Brainfuck.j++;
         }
 
         assertEquals(block.execute(new State(700)), null);
@@ -0,0 +1,75 @@
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LoopMemoTest {
+
+    // a = 3, b = 5, then a * b into the next cell using one scratch cell, printed and cleared, three times over
+    private static final String PROGRAM = "+++[>[-]+++>[-]+++++<[>[>+>+<<-]>>[<<+>>-]<<<-]>>.[-]<<<-]";
+
+    @After
+    public void reset() {
+        LoopMemo.enabled = false;
+    }
+
+    private static List<Instruction.WhileLoop> loops(InstructionBlock block) {
+        List<Instruction.WhileLoop> loops = new ArrayList<>();
+        for (Instruction inst : block) {
+            if (inst instanceof Instruction.WhileLoop) {
+                loops.add((Instruction.WhileLoop) inst);
+            }
+        }
+        return loops;
+    }
+
+    private static Instruction.WhileLoop loop(InstructionBlock block) {
+        return loops(block).get(0);
+    }
+
+    @Test
+    public void repeatedRunsHit() {
+        LoopMemo.enabled = true;
+        InstructionBlock block = new InstructionBlock(InstructionBlock.from(PROGRAM).inst);
+        Instruction.WhileLoop multiply = loops(loop(block).block).get(2);
+        assertEquals("\u000f\u000f\u000f", block.execute(new State(100)));
+
+        assertNull(loop(block).memo());
+        LoopMemo memo = multiply.memo();
+        assertNotNull(memo);
+        assertEquals(2, memo.hits());
+        assertEquals(1, memo.misses());
+        assertArrayEquals(new int[]{0, 1, 2, 3}, memo.key);
+        assertTrue(LoopMemo.report().startsWith("memo: "));
+    }
+
+    @Test
+    public void cellsOverwrittenFirstAreNotKeyed() {
+        InstructionBlock block = Brainfuck.optimize(new InstructionBlock(InstructionBlock.from(",[>[-]+<--]").inst));
+        LoopMemo memo = LoopMemo.of(loop(block));
+        assertNotNull(memo);
+        assertArrayEquals(new int[]{0}, memo.key);
+    }
+
+    @Test
+    public void zeroCounterKeepsCells() {
+        LoopMemo.enabled = true;
+        InstructionBlock block = new InstructionBlock(InstructionBlock.from(">[>[-]+<-]>.").inst);
+        State state = new State(10);
+        state.tape.set(1, (byte) 2);
+        state.tape.set(2, (byte) 7);
+        assertEquals("\u0001", block.execute(state));
+        state = new State(10);
+        state.tape.set(2, (byte) 7);
+        assertEquals("\u0007", block.execute(state));
+    }
+
+    @Test
+    public void ioAndUnboundedLoopsAreNotMemoized() {
+        assertNull(LoopMemo.of(loop(new InstructionBlock(InstructionBlock.from("[.-]").inst))));
+        assertNull(LoopMemo.of(loop(new InstructionBlock(InstructionBlock.from("[>]").inst))));
+    }
+}
@@ -0,0 +1,48 @@
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LoopTableTest {
+
+    @After
+    public void reset() {
+        LoopTable.capacity = 4096;
+        LoopTable.clear();
+    }
+
+    private static InstructionBlock body(String program) {
+        Instruction.WhileLoop loop = (Instruction.WhileLoop) InstructionBlock.from(program).inst.get(0);
+        return loop.block;
+    }
+
+    @Test
+    public void sharedBodiesAreCopies() {
+        LoopTable.clear();
+        InstructionBlock first = body("[>[.-]<-]");
+        InstructionBlock second = body("[>[.-]<-]");
+        LoopTable.optimize(first);
+        assertTrue(LoopTable.optimize(second));
+        assertEquals(first.toString(), second.toString());
+        assertNotSame(first.first.instruction, second.first.instruction);
+    }
+
+    @Test
+    public void optimizedBodiesAreAtTheirFixpoint() {
+        LoopTable.clear();
+        InstructionBlock block = body("[>+<-]");
+        LoopTable.optimize(block);
+        assertFalse(LoopTable.optimize(block));
+    }
+
+    @Test
+    public void onlyRecentBodiesAreKept() {
+        LoopTable.clear();
+        LoopTable.capacity = 2;
+        LoopTable.optimize(body("[>+<-]"));
+        LoopTable.optimize(body("[>++<-]"));
+        LoopTable.optimize(body("[>+++<-]"));
+        LoopTable.optimize(body("[>+<-]"));
+        assertEquals(1, LoopTable.dedupRatio(), 0);
+    }
+}
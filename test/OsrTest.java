@@ -0,0 +1,65 @@
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+
+import static org.junit.Assert.*;
+
+public class OsrTest {
+
+    private static final String NESTED = "++++[[.>+<-]>[-<+>]<-]";
+    private static final String PROGRAM = "++++++++[>++++[>++>+++>+++>+<<<<-]>+>+>->>+[<]<-]>>.>---.+++++++..+++.>>.<-.<.+++.------.--------.>>+.>++.";
+
+    @After
+    public void reset() {
+        Instruction.WhileLoop.osrThreshold = 10_000;
+    }
+
+    @Test
+    public void hotLoopMovesIntoOptimizedForm() {
+        Instruction.WhileLoop.osrThreshold = 3;
+        InstructionBlock block = new InstructionBlock(InstructionBlock.from(PROGRAM).inst);
+        Instruction.WhileLoop outer = firstLoop(block);
+        String parsed = outer.toString();
+
+        assertEquals("Hello World!\n", block.execute(new State(100)));
+        assertNotNull(outer.osr);
+        assertFalse(outer.osr.toString().equals(outer.toString()));
+        assertEquals("Hello World!\n", block.execute(new State(100)));
+    }
+
+    @Test
+    public void nestedLoopsAreNotRewritten() {
+        Instruction.WhileLoop.osrThreshold = 2;
+        InstructionBlock block = new InstructionBlock(InstructionBlock.from(NESTED).inst);
+        Instruction.WhileLoop outer = firstLoop(block);
+        String parsed = outer.toString();
+
+        String output = block.execute(new State(100));
+        assertNotNull(outer.osr);
+        assertEquals(parsed, outer.toString());
+        assertEquals(output, new InstructionBlock(InstructionBlock.from(NESTED).inst)
+                .execute(new State(100)));
+    }
+
+    @Test
+    public void optimizedLoopsStay() {
+        Instruction.WhileLoop.osrThreshold = 1;
+        InstructionBlock block = Brainfuck.optimize(new InstructionBlock(InstructionBlock.from(",[.-]").inst));
+        State state = new State(100);
+        state.in = new ByteArrayInputStream(new byte[]{3});
+        assertEquals("\u0003\u0002\u0001", block.execute(state));
+        Instruction.WhileLoop loop = firstLoop(block);
+        assertNotNull(loop);
+        assertNull(loop.osr);
+    }
+
+    private static Instruction.WhileLoop firstLoop(InstructionBlock block) {
+        for (Instruction inst : block) {
+            if (inst instanceof Instruction.WhileLoop) {
+                return (Instruction.WhileLoop) inst;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,84 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CancellationException;
+
+import static org.junit.Assert.*;
+
+public class ParallelTest {
+
+    private static final String DISJOINT = ",>,>>>>,>,<<<<<[->[->+<]<]>>>>>[->[->+<]<]>>.<<<<<<<.";
+
+    @Before
+    public void enable() {
+        Instruction.Parallel.enabled = true;
+        Instruction.Parallel.minCost = 0;
+    }
+
+    @After
+    public void reset() {
+        Instruction.Parallel.enabled = false;
+        Instruction.Parallel.minCost = 1000;
+    }
+
+    @Test
+    public void disjointLoopsAreGrouped() {
+        InstructionBlock block = Programs.optimize(DISJOINT);
+        assertTrue(block.toString(), block.toString().contains("parallel {\n  while 1 {"));
+        InstructionBlock parsed = Programs.parse(DISJOINT);
+        for (String input : new String[]{"x\u0011z\u0005", "\0\u0003\u0007\0", "\u0001\u0001\u0001\u0001"}) {
+            assertEquals(Programs.run(parsed, new State(100), input), Programs.run(block, new State(100), input));
+        }
+    }
+
+    @Test
+    public void dependentLoopsStayInOrder() {
+        // the second loop counts down the cell the first one fills
+        InstructionBlock block = Programs.optimize(",>,>>>>,>,<<<<<[->[->+<]<]>>[->[->+<]<]>>.");
+        assertFalse(block.toString(), block.toString().contains("parallel"));
+    }
+
+    @Test
+    public void cheapLoopsStayInOrder() {
+        Instruction.Parallel.minCost = 1000;
+        assertFalse(Programs.optimize(DISJOINT).toString().contains("parallel"));
+    }
+
+    @Test
+    public void pagedTapeRunsInOrder() {
+        InstructionBlock block = Programs.optimize(DISJOINT);
+        InstructionBlock parsed = Programs.parse(DISJOINT);
+        State paged = new State(new Tape.Paged(2 * Tape.PAGE_SIZE));
+        paged.pointer = Tape.PAGE_SIZE - 4;
+        State flat = new State(2 * Tape.PAGE_SIZE);
+        flat.pointer = Tape.PAGE_SIZE - 4;
+        String input = "\u0010 0@";
+        Programs.run(parsed, flat, input);
+        Programs.run(block, paged, input);
+        for (int i = Tape.PAGE_SIZE - 4; i < Tape.PAGE_SIZE + 10; i++) {
+            assertEquals(flat.tape.get(i), paged.tape.get(i));
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void cancelStopsEveryLoop() {
+        // both loops run until the program is cancelled
+        InstructionBlock block = Programs.optimize(",>>>,<<<[>+<]>>>[>+<]");
+        assertTrue(block.toString(), block.toString().contains("parallel"));
+        State state = new State(100);
+        Thread cancel = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ignored) {
+            }
+            state.cancelled = true;
+        });
+        cancel.start();
+        try {
+            Programs.run(block, state, "\1\1");
+            fail();
+        } catch (CancellationException expected) {
+        }
+    }
+}
@@ -0,0 +1,97 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ProfileTest {
+
+    // the loops run 2, 10 and 100 times
+    private static final String PROGRAM = "++[>+<-]>>++++++++++[>++++++++++<-]>[-<+>]<.";
+
+    private static InstructionBlock parse(String program) {
+        return new InstructionBlock(InstructionBlock.from(program).inst);
+    }
+
+    @Test
+    public void coldLoopsLeftAsParsed() {
+        InstructionBlock block = parse(PROGRAM);
+        Profile profile = Profile.collect(PROGRAM, block, 1_000_000);
+        assertArrayEquals(new long[]{2, 10, 100}, profile.counts);
+
+        Profile.hotFraction = 0.05;
+        try {
+            profile.apply(block);
+        } finally {
+            Profile.hotFraction = 0.001;
+        }
+        Instruction.WhileLoop first = (Instruction.WhileLoop) block.first.next.next.instruction;
+        assertTrue(first.cold);
+
+        InstructionBlock optimized = Brainfuck.optimize(block);
+        assertTrue(optimized.toString().contains("while"));
+        assertEquals(parse(PROGRAM).execute(new State(100)), optimized.execute(new State(100)));
+    }
+
+    @Test
+    public void coldLoopsMarkedSeparately() {
+        // both outer loops have the same body, with only one of the inner loops cold
+        String program = ",[>,[>++<-]<-]>>>,[>,[>++<-]<-]";
+        for (int cold : new int[]{1, 3}) {
+            InstructionBlock block = parse(program);
+            loops(block).get(cold).cold = true;
+            String parsed = loops(block).get(cold).block.toString();
+
+            List<Instruction.WhileLoop> loops = loops(Brainfuck.optimize(block));
+            assertEquals(3, loops.size());
+            List<Instruction.WhileLoop> marked = new ArrayList<>();
+            for (Instruction.WhileLoop loop : loops) {
+                if (loop.cold) {
+                    marked.add(loop);
+                }
+            }
+            assertEquals(1, marked.size());
+            assertEquals(parsed, marked.get(0).block.toString());
+            // the cold loop is the inner loop of the first or the second outer loop
+            assertSame(marked.get(0), loops.get(cold == 1 ? 1 : 2));
+        }
+    }
+
+    private static List<Instruction.WhileLoop> loops(InstructionBlock block) {
+        List<Instruction.WhileLoop> loops = new ArrayList<>();
+        for (Instruction inst : block) {
+            if (inst instanceof Instruction.WhileLoop) {
+                loops.add((Instruction.WhileLoop) inst);
+            }
+            if (inst instanceof Instruction.Control) {
+                loops.addAll(loops(((Instruction.Control) inst).block));
+            }
+        }
+        return loops;
+    }
+
+    @Test
+    public void budgetStopsProfiling() {
+        Profile profile = Profile.collect("+[]", parse("+[]"), 1000);
+        assertArrayEquals(new long[]{1000}, profile.counts);
+    }
+
+    @Test
+    public void savedProfileMatchesSource() throws IOException {
+        Path path = Files.createTempFile("profile", ".txt");
+        try {
+            Profile profile = Profile.collect(PROGRAM, parse(PROGRAM), 1_000_000);
+            profile.save(path);
+            Profile loaded = Profile.load(path, PROGRAM);
+            assertNotNull(loaded);
+            assertArrayEquals(profile.counts, loaded.counts);
+            assertNull(Profile.load(path, PROGRAM + "."));
+        } finally {
+            Files.delete(path);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+
+import static org.junit.Assert.*;
+
+public class ProgramImageTest {
+
+    private static final String HELLO = "++++++++[>++++[>++>+++>+++>+<<<<-]>+>+>->>+[<]<-]>>.>---.+++++++..+++.>>.<-.<.+++.------.--------.>>+.>++.";
+
+    @Test
+    public void prologueFolded() {
+        ProgramImage image = ProgramImage.of(Programs.optimize(">+++>++>>+<<<,[.>]"));
+        assertArrayEquals(new byte[]{0, 0, 2, 0, 1}, image.cells);
+        assertEquals(0, image.entry);
+        assertTrue(image.residual.first.instruction instanceof Instruction.Read);
+
+        State state = new State(10);
+        state.in = new ByteArrayInputStream(new byte[]{7});
+        assertEquals("\u0007\u0002", image.execute(state));
+    }
+
+    @Test
+    public void constantProgram() {
+        InstructionBlock block = Programs.optimize(HELLO);
+        ProgramImage image = ProgramImage.of(block);
+        State state = new State(100);
+        assertEquals("Hello World!\n", image.execute(state));
+    }
+
+    @Test
+    public void stopsLeftOfStart() {
+        ProgramImage image = ProgramImage.of(Programs.optimize("+>+<<+,[.>]"));
+        assertEquals(0, image.cells.length);
+        assertEquals(0, image.entry);
+        assertTrue(image.residual.first.instruction instanceof Instruction.Fill);
+    }
+
+    @Test
+    public void pagedLoad() {
+        byte[] cells = new byte[Tape.PAGE_SIZE + 10];
+        cells[0] = 1;
+        cells[cells.length - 1] = 2;
+        Tape.Paged tape = new Tape.Paged(4 * Tape.PAGE_SIZE);
+        tape.load(5, cells);
+        assertEquals(1, tape.get(5));
+        assertEquals(2, tape.get(4 + cells.length));
+        assertEquals(0, tape.get(4));
+    }
+}
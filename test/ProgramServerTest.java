@@ -0,0 +1,134 @@
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class ProgramServerTest {
+
+    private static final String HELLO = "++++++++[>++++[>++>+++>+++>+<<<<-]>+>+>->>+[<]<-]>>.>---.+++++++..+++.>>.<-.<.+++.------.--------.>>+.>++.";
+
+    @Test
+    public void runsAndCaches() throws IOException {
+        ProgramServer server = new ProgramServer(0, 2, 1 << 16);
+        server.start();
+        try {
+            assertEquals("Hello World!\n", post(server, HELLO, null));
+            assertEquals("Hello World!\n", post(server, HELLO + " comment", null));
+            assertEquals("cba", post(server, ",>,>,.<.<.", "abc"));
+            assertEquals(1, server.cache().hits());
+            assertEquals(2, server.cache().misses());
+            assertTrue(server.report().contains("p99"));
+        } finally {
+            server.stop();
+        }
+    }
+
+    @After
+    public void reset() {
+        ProgramCache.compileTimeout = 10_000;
+        ProgramServer.runTimeout = 60_000;
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        // the same instructions with different amounts weigh the same
+        ProgramCache cache = new ProgramCache(2 * ProgramCache.weigh(new ProgramCache(1).get(",+.")));
+        cache.get(",+.");
+        cache.get(",++.");
+        cache.get(",+.");
+        cache.get(",+++.");
+        assertEquals(2, cache.size());
+        cache.get(",+.");
+        assertEquals(2, cache.hits());
+        cache.get(",++.");
+        assertEquals(4, cache.misses());
+    }
+
+    @Test
+    public void requestsGetTheirOwnCopy() throws Exception {
+        ProgramCache cache = new ProgramCache(1 << 16);
+        ProgramImage first = cache.get(",[.-]");
+        ProgramImage second = cache.get(",[.-]");
+        assertEquals(first.toString(), second.toString());
+        assertNotSame(first.residual.first.next.instruction, second.residual.first.next.instruction);
+    }
+
+    @Test(timeout = 10_000)
+    public void stopsLongRuns() throws IOException {
+        ProgramServer.runTimeout = 100;
+        ProgramServer server = new ProgramServer(0, 2, 1 << 16);
+        server.start();
+        try {
+            assertEquals(503, status(server, "+[]"));
+            assertEquals(503, status(server, "+[>+<]"));
+            assertEquals("Hello World!\n", post(server, HELLO, null));
+            assertTrue(server.report().contains("2 timed out"));
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void stopsLongCompiles() throws IOException {
+        // a few hundred different loops take far longer than a millisecond to optimize
+        StringBuilder program = new StringBuilder();
+        for (int i = 1; i < 200; i++) {
+            program.append('>');
+            for (int j = 0; j < i % 13; j++) {
+                program.append('+');
+            }
+            program.append("[<");
+            for (int j = 0; j <= i % 7; j++) {
+                program.append('+');
+            }
+            program.append(">-]");
+        }
+        ProgramCache.compileTimeout = 1;
+        ProgramServer server = new ProgramServer(0, 2, 1 << 16);
+        server.start();
+        try {
+            assertEquals(503, status(server, program.toString()));
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static int status(ProgramServer server, String program) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(
+                "http://127.0.0.1:" + server.port() + "/run").openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(program.getBytes(StandardCharsets.ISO_8859_1));
+        }
+        return connection.getResponseCode();
+    }
+
+    private static String post(ProgramServer server, String program, String input) throws IOException {
+        String query = input == null ? "" : "?input=" + input;
+        HttpURLConnection connection = (HttpURLConnection) new URL(
+                "http://127.0.0.1:" + server.port() + "/run" + query).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(program.getBytes(StandardCharsets.ISO_8859_1));
+        }
+        assertEquals(200, connection.getResponseCode());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream in = connection.getInputStream()) {
+            int read;
+            while ((read = in.read()) != -1) {
+                bytes.write(read);
+            }
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,59 @@
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parsing, optimizing and running the small programs of the optimizer tests.
+ */
+final class Programs {
+
+    private Programs() {
+    }
+
+    static InstructionBlock parse(String program) {
+        return new InstructionBlock(InstructionBlock.from(program).inst);
+    }
+
+    static InstructionBlock optimize(String program) {
+        return Brainfuck.optimize(parse(program));
+    }
+
+    /**
+     * Runs only the context-free passes, which leave loops and other instructions where the zero tape would fold them.
+     */
+    static InstructionBlock optimizeWithoutContext(String program) {
+        InstructionBlock block = parse(program);
+        while (block.optimize()) ;
+        return block;
+    }
+
+    /**
+     * @return the output of the block on a fresh tape
+     */
+    static String run(InstructionBlock block, String input) {
+        State state = new State(100);
+        state.in = new ByteArrayInputStream(input.getBytes());
+        return block.execute(state);
+    }
+
+    /**
+     * @return the output of the program as parsed, on a fresh tape
+     */
+    static String run(String program, String input) {
+        return run(parse(program), input);
+    }
+
+    /**
+     * @return the output of the block followed by the pointer and tape it leaves
+     */
+    static String run(InstructionBlock block, State state, String input) {
+        state.in = new ByteArrayInputStream(input.getBytes());
+        return block.execute(state) + state.pointer + state.tape;
+    }
+
+    static List<Instruction> instructions(InstructionBlock block) {
+        List<Instruction> instructions = new ArrayList<>();
+        block.forEach(instructions::add);
+        return instructions;
+    }
+}
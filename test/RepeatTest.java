@@ -0,0 +1,61 @@
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RepeatTest {
+
+    @After
+    public void reset() {
+        Instruction.WhileLoop.maxUnroll = 8;
+        CostModel.clear();
+    }
+
+    @Test
+    public void tripCounts() {
+        assertEquals(0, Instruction.WhileLoop.trips((byte) 0, -1));
+        assertEquals(5, Instruction.WhileLoop.trips((byte) 5, -1));
+        assertEquals(251, Instruction.WhileLoop.trips((byte) 5, 1));
+        assertEquals(3, Instruction.WhileLoop.trips((byte) 6, -2));
+        assertEquals(-1, Instruction.WhileLoop.trips((byte) 5, 2));
+    }
+
+    @Test
+    public void smallLoopIsUnrolled() {
+        String program = "+++[>,.<-]";
+        InstructionBlock block = Programs.optimize(program);
+        assertFalse(block.toString(), block.toString().contains("while"));
+        assertFalse(block.toString(), block.toString().contains("repeat"));
+        assertEquals(Programs.run(program, "abc"), Programs.run(block, "abc"));
+    }
+
+    @Test
+    public void addsAreFoldedOutOfCountedLoop() {
+        String program = "++++++++++++++++++++[>+++>,.<<-]>.>.";
+        InstructionBlock block = Programs.optimize(program);
+        String s = block.toString();
+        assertTrue(s, s.contains("repeat 0 x20 {\n  read 2\n  out 2\n}"));
+        assertFalse(s, s.contains("while"));
+        assertEquals(Programs.run(program, "abc"), Programs.run(block, "abc"));
+    }
+
+    @Test
+    public void bodyReadingTheCounterStays() {
+        String program = "++++++++++++++++++++++++++++++++++++++++[>.+<-]";
+        InstructionBlock block = Programs.optimize(program);
+        assertTrue(block.toString(), block.toString().contains("repeat 0 x40"));
+        assertEquals(Programs.run(program, ""), Programs.run(block, ""));
+
+        program = "++++++++++++++++++++++++++++++++++++++++[.-]";
+        block = Programs.optimize(program);
+        assertTrue(block.toString(), block.toString().contains("repeat 0 x40 {\n  out 0\n  sub 1\n}"));
+        assertEquals(Programs.run(program, ""), Programs.run(block, ""));
+    }
+
+    @Test
+    public void unknownCounterStaysLoop() {
+        InstructionBlock block = Programs.optimize(",[>,.<-]");
+        assertTrue(block.toString().contains("while"));
+        assertFalse(block.toString().contains("repeat"));
+    }
+}
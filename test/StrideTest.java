@@ -0,0 +1,90 @@
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+
+import static org.junit.Assert.*;
+
+public class StrideTest {
+
+    private static Instruction.WhileLoop loop(InstructionBlock block) {
+        for (Instruction inst : block) {
+            if (inst instanceof Instruction.WhileLoop) {
+                return (Instruction.WhileLoop) inst;
+            }
+        }
+        throw new AssertionError(block.toString());
+    }
+
+    @Test
+    public void recordOfStridedLoop() {
+        Instruction.WhileLoop loop = loop(Programs.optimizeWithoutContext(",[>>>>>>>>[-]+>,]"));
+        assertNull(loop.summary());
+        Instruction.WhileLoop.Summary record = loop.record();
+        assertNotNull(record);
+        assertEquals(9, record.stride);
+        assertEquals(Byte.valueOf((byte) 1), record.fixed.get(8));
+        assertTrue(record.clobbered.contains(9));
+        assertNull(loop(Programs.optimizeWithoutContext(",[>,<-]")).record());
+    }
+
+    @Test
+    public void fieldOfLastRecordIsKnown() {
+        // the field before the pointer is 1 whether the loop runs or not
+        InstructionBlock block = Programs.optimize(">>>>>>>>+>,[>>>>>>>>[-]+>,]<.");
+        assertTrue(block.toString(), block.toString().contains("print \"\u0001\""));
+    }
+
+    @Test
+    public void counterOfLastRecordIsNotZero() {
+        // once the walk ran, the record it stopped after has a non-zero counter, so the last loop runs exactly once
+        InstructionBlock block = Programs.optimize("+[>>,]<<[.[-]]");
+        assertFalse(block.toString(), block.toString().contains("if "));
+        State state = new State(10);
+        state.in = new ByteArrayInputStream(new byte[]{0});
+        assertEquals("\u0001", block.execute(state));
+    }
+
+    @Test
+    public void walkMatchesInterpreter() {
+        String program = ">+>>+>>+>>+>>+>>+>>+>>+>>+>>+<<<<<<<<<<<<<<<<<<[>[-]++>]<<<[<<]>[>.>]";
+        InstructionBlock parsed = Programs.parse(program);
+        InstructionBlock optimized = Programs.optimizeWithoutContext(program);
+        assertTrue(optimized.toString(), optimized.toString().contains("  set 2, >1\n  shift 2\n}"));
+        String expected = Programs.run(parsed, new State(100), "");
+        assertEquals(expected, Programs.run(optimized, new State(100), ""));
+
+        Tape.Paged tape = new Tape.Paged(2 * Tape.PAGE_SIZE);
+        State paged = new State(tape);
+        paged.pointer = Tape.PAGE_SIZE - 7;
+        State flat = new State(2 * Tape.PAGE_SIZE);
+        flat.pointer = Tape.PAGE_SIZE - 7;
+        assertEquals(parsed.execute(flat), optimized.execute(paged));
+        assertEquals(flat.pointer, paged.pointer);
+        for (int i = Tape.PAGE_SIZE - 8; i < Tape.PAGE_SIZE + 20; i++) {
+            assertEquals(flat.tape.get(i), tape.get(i));
+        }
+    }
+
+    @Test
+    public void scanByOneCell() {
+        InstructionBlock scan = Programs.optimizeWithoutContext("[>]");
+        for (int length = 0; length < 40; length++) {
+            State state = new State(100);
+            for (int i = 3; i < 3 + length; i++) {
+                state.tape.set(i, (byte) (i % 7 + 1));
+            }
+            state.pointer = 3;
+            scan.execute(state);
+            assertEquals(3 + length, state.pointer);
+        }
+    }
+
+    @Test(expected = ArrayIndexOutOfBoundsException.class)
+    public void scanOffTheTapeFails() {
+        State state = new State(16);
+        for (int i = 0; i < 16; i++) {
+            state.tape.set(i, (byte) 1);
+        }
+        Programs.optimizeWithoutContext("[>]").execute(state);
+    }
+}
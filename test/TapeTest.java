@@ -0,0 +1,116 @@
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class TapeTest {
+
+    @Test
+    public void pagedMaterializesOnWrite() {
+        Tape.Paged tape = new Tape.Paged(1 << 20);
+        assertEquals(0, tape.get(123456));
+        assertEquals(0, tape.materialized());
+
+        tape.set(123456, (byte) 7);
+        tape.set(123457, (byte) 8);
+        assertEquals(7, tape.get(123456));
+        assertEquals(8, tape.get(123457));
+        assertEquals(0, tape.get(0));
+        assertEquals(1, tape.materialized());
+    }
+
+    @Test
+    public void pagedArrayWithinOnePage() {
+        Tape.Paged tape = new Tape.Paged(3 * Tape.PAGE_SIZE);
+        int cell = Tape.PAGE_SIZE + 5;
+        tape.set(cell, (byte) 3);
+        byte[] page = tape.array(cell - 2, cell + 2);
+        assertNotNull(page);
+        assertEquals(3, page[cell - tape.base(cell - 2)]);
+        assertNull(tape.array(Tape.PAGE_SIZE - 1, Tape.PAGE_SIZE));
+        assertNull(tape.array(-1, 1));
+    }
+
+    @Test
+    public void pagedForkCopiesOnWrite() {
+        Tape.Paged tape = new Tape.Paged(3 * Tape.PAGE_SIZE);
+        tape.set(5, (byte) 1);
+        Tape.Paged fork = tape.fork();
+        assertEquals(1, fork.get(5));
+        fork.set(5, (byte) 2);
+        tape.set(Tape.PAGE_SIZE, (byte) 3);
+        assertEquals(1, tape.get(5));
+        assertEquals(2, fork.get(5));
+        assertEquals(0, fork.get(Tape.PAGE_SIZE));
+        assertEquals(3, tape.get(Tape.PAGE_SIZE));
+    }
+
+    @Test
+    public void pagedReadsTakeNoPages() {
+        Tape.Paged tape = new Tape.Paged(3 * Tape.PAGE_SIZE);
+        byte[] zeros = tape.read(Tape.PAGE_SIZE, Tape.PAGE_SIZE + 8);
+        assertNotNull(zeros);
+        assertEquals(0, zeros[8]);
+        assertEquals(0, tape.materialized());
+
+        tape.set(5, (byte) 1);
+        Tape.Paged fork = tape.fork();
+        assertSame(tape.read(0, 8), fork.read(0, 8));
+        fork.set(5, (byte) 2);
+        assertEquals(1, tape.read(0, 8)[5]);
+        assertEquals(2, fork.read(0, 8)[5]);
+    }
+
+    @Test
+    public void unenteredLoopTakesNoPage() {
+        Tape.Paged tape = new Tape.Paged(3 * Tape.PAGE_SIZE);
+        State state = new State(tape);
+        state.pointer = Tape.PAGE_SIZE + 5;
+        Instruction.WhileLoop loop = new Instruction.WhileLoop(0);
+        loop.block.addAll(Collections.singletonList(new Instruction.Add((byte) 1, 1)));
+        loop.execute(state);
+        assertEquals(0, tape.materialized());
+    }
+
+    @Test
+    public void mappedInChunks() throws Exception {
+        File file;
+        try (Tape.Mapped tape = new Tape.Mapped(Tape.Mapped.CHUNK_SIZE + Tape.PAGE_SIZE)) {
+            file = tape.file();
+            assertTrue(file.exists());
+            tape.set(0, (byte) 1);
+            tape.set(Tape.Mapped.CHUNK_SIZE - 1, (byte) 2);
+            assertEquals(1, tape.mapped());
+            tape.set(Tape.Mapped.CHUNK_SIZE + 1, (byte) 3);
+            assertEquals(2, tape.mapped());
+            assertEquals(2, tape.get(Tape.Mapped.CHUNK_SIZE - 1));
+            assertEquals(3, tape.get(Tape.Mapped.CHUNK_SIZE + 1));
+            assertFalse(tape.heap());
+        }
+        assertFalse(file.exists());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void mappedHasNoArrays() throws Exception {
+        try (Tape.Mapped tape = new Tape.Mapped(Tape.PAGE_SIZE)) {
+            tape.array(0, 1);
+        }
+    }
+
+    @Test
+    public void sameOutputOnEveryTape() throws Exception {
+        String program = "++++++++[>++++[>++>+++>+++>+<<<<-]>+>+>->>+[<]<-]>>.>---.+++++++..+++.>>.<-.<.+++.------.--------.>>+.>++.";
+        InstructionBlock block = Brainfuck.optimize(new InstructionBlock(InstructionBlock.from(program).inst));
+        String flat = block.execute(new State(1 << 16));
+        String paged = block.execute(new State(new Tape.Paged(1 << 16)));
+        String mapped;
+        try (Tape.Mapped tape = new Tape.Mapped(1 << 16)) {
+            mapped = block.execute(new State(tape));
+        }
+        assertEquals("Hello World!\n", flat);
+        assertEquals(flat, paged);
+        assertEquals(flat, mapped);
+    }
+}
@@ -0,0 +1,104 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class TranspilerTest {
+
+    private static final String HELLO = "++++++++[>++++[>++>+++>+++>+<<<<-]>+>+>->>+[<]<-]>>.>---.+++++++..+++.>>.<-.<.+++.------.--------.>>+.>++.";
+
+    private Path defaultDirectory;
+
+    @Before
+    public void cacheDirectory() throws IOException {
+        defaultDirectory = Transpiler.cacheDirectory;
+        Transpiler.cacheDirectory = Files.createTempDirectory("transpiler");
+    }
+
+    @After
+    public void deleteCacheDirectory() throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(Transpiler.cacheDirectory)) {
+            files = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            Files.delete(file);
+        }
+        Transpiler.cacheDirectory = defaultDirectory;
+    }
+
+    @Test
+    public void compiledMatchesInterpreter() throws IOException {
+        Transpiler.Compiled compiled = Transpiler.compile(HELLO);
+        assertEquals("Hello World!\n", compiled.execute(new State(100)));
+
+        String echo = ",[.,]";
+        State state = new State(100);
+        state.in = new ByteArrayInputStream("abc\0".getBytes());
+        assertEquals("abc", Transpiler.compile(echo).execute(state));
+    }
+
+    @Test
+    public void sourceKeptAndReused() throws IOException {
+        Transpiler.Compiled compiled = Transpiler.compile(",[.,]");
+        Path source = Transpiler.source(compiled.name);
+        assertTrue(new String(Files.readAllBytes(source)).contains("while (t[p] != 0)"));
+
+        Files.delete(source);
+        State state = new State(100);
+        state.in = new ByteArrayInputStream("a\0".getBytes());
+        assertEquals("a", Transpiler.compile(",[.,]").execute(state));
+        assertFalse(Files.exists(source));
+    }
+
+    @Test
+    public void imageWrittenWhole() throws IOException {
+        Transpiler.Compiled compiled = Transpiler.compile(HELLO);
+        assertTrue(Files.exists(Transpiler.cacheDirectory.resolve(compiled.name + ".image")));
+        try (Stream<Path> files = Files.list(Transpiler.cacheDirectory)) {
+            assertFalse(files.anyMatch(file -> file.toString().endsWith(".tmp")));
+        }
+    }
+
+    @Test
+    public void longBlocksAreSplit() {
+        StringBuilder program = new StringBuilder("+[");
+        for (int i = 0; i < 3 * Transpiler.CHUNK; i++) {
+            program.append(",>");
+        }
+        program.append("]");
+        InstructionBlock block = new InstructionBlock(InstructionBlock.from(program.toString()).inst);
+        String source = Transpiler.generate("Long", block);
+        assertTrue(source.contains("private static int m3("));
+    }
+
+    @Test
+    public void countedLoopIsForLoop() throws IOException {
+        String program = "++++++++++++++++++++++++++++++++++++++++[.-]";
+        Transpiler.Compiled compiled = Transpiler.compile(program);
+        assertTrue(new String(Files.readAllBytes(Transpiler.source(compiled.name))).contains("for (int n = 0; n < 40;"));
+        assertEquals(new InstructionBlock(InstructionBlock.from(program).inst).execute(new State(100)),
+                compiled.execute(new State(100)));
+    }
+
+    @Test
+    public void copyReadsSourceOnce() throws IOException {
+        String program = ",>,<[->+>+<<]>>[-<<+>>]<.<.";
+        Transpiler.Compiled compiled = Transpiler.compile(program);
+        assertTrue(compiled.name.startsWith("Program_" + Transpiler.FORMAT + "_"));
+        assertTrue(new String(Files.readAllBytes(Transpiler.source(compiled.name))).contains("byte v = t[p];"));
+        State state = new State(100);
+        state.in = new ByteArrayInputStream("ab".getBytes());
+        assertEquals("\u00c3a", compiled.execute(state));
+    }
+}